@@ -0,0 +1,83 @@
+package com.mycelium.spvmodule.dash;
+
+import android.text.format.DateUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how soon the wallet journals write their wallets as a whole, from the sync state {@link SpvService}
+ * reports.
+ * <p>
+ * While the chain is replayed nearly every block changes the wallet, and saving late loses nothing, the blocks
+ * seen after the last save are downloaded again. Once caught up a received or sent transaction is something
+ * the user has seen, so it is saved soon.
+ */
+public class AutosavePolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(AutosavePolicy.class);
+
+    /**
+     * More blocks left to download than this counts as replaying.
+     */
+    private static final int REPLAY_BLOCKS_LEFT = 100;
+
+    private static final long REPLAY_SAVE_DELAY_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long REPLAY_SYNC_DELAY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+    private static final long REPLAY_MAX_JOURNAL_BYTES = 4 * 1024 * 1024;
+
+    private static final long SCREEN_ON_SAVE_DELAY_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final long SCREEN_OFF_SAVE_DELAY_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long TRANSACTION_SAVE_DELAY_MS = 2 * DateUtils.SECOND_IN_MILLIS;
+    private static final long MAX_JOURNAL_BYTES = 1024 * 1024;
+
+    private volatile boolean replaying = false;
+    private volatile boolean screenOn = true;
+
+    /**
+     * Called for every batch of downloaded blocks.
+     */
+    public void setBlocksLeft(int blocksLeft) {
+        boolean replaying = blocksLeft > REPLAY_BLOCKS_LEFT;
+        if (replaying != this.replaying) {
+            this.replaying = replaying;
+            log.info("Autosave switched to {}, {} blocks left", replaying ? "replay" : "caught up", blocksLeft);
+        }
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+    }
+
+    /**
+     * @return how long after a change the wallet is written as a whole at the latest
+     */
+    public long getSaveDelayMs() {
+        if (replaying) {
+            return REPLAY_SAVE_DELAY_MS;
+        }
+        return screenOn ? SCREEN_ON_SAVE_DELAY_MS : SCREEN_OFF_SAVE_DELAY_MS;
+    }
+
+    /**
+     * @return how long after a received or sent transaction the wallet is written as a whole at the latest
+     */
+    public long getTransactionSaveDelayMs() {
+        // replayed transactions are history, not news
+        return replaying ? REPLAY_SAVE_DELAY_MS : TRANSACTION_SAVE_DELAY_MS;
+    }
+
+    /**
+     * @return how long journal records may wait for their fsync
+     */
+    public long getSyncDelayMs() {
+        return replaying ? REPLAY_SYNC_DELAY_MS : 0;
+    }
+
+    /**
+     * @return journal size at which the wallet is written as a whole right away
+     */
+    public long getMaxJournalBytes() {
+        return replaying ? REPLAY_MAX_JOURNAL_BYTES : MAX_JOURNAL_BYTES;
+    }
+}
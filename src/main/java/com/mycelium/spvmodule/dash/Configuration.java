@@ -29,6 +29,8 @@ import org.bitcoinj.utils.MonetaryFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 /**
  * @author Andreas Schildbach
  */
@@ -64,6 +66,7 @@ public class Configuration {
     private static final String PREFS_KEY_LAST_BACKUP = "last_backup";
     public static final String PREFS_KEY_INSTANTX_ENABLED = "labs_instantx_enabled";
     public static final String PREFS_KEY_LITE_MODE = "labs_lite_mode";
+    private static final String PREFS_KEY_CACHED_BALANCE = "cached_balance_";
 
     private static final int PREFS_DEFAULT_BTC_SHIFT = 0;
     private static final int PREFS_DEFAULT_BTC_PRECISION = 2;
@@ -267,4 +270,22 @@ public class Configuration {
     public boolean getLiteMode() {
         return prefs.getBoolean(PREFS_KEY_LITE_MODE, false);
     }
+
+    /**
+     * @return confirmed, sending and receiving balance of the account as of its last wallet change, or null
+     */
+    @Nullable
+    public long[] getCachedBalance(final int accountIndex) {
+        final String cached = prefs.getString(PREFS_KEY_CACHED_BALANCE + accountIndex, null);
+        if (cached == null)
+            return null;
+        final String[] values = cached.split(",");
+        if (values.length != 3)
+            return null;
+        return new long[] { Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]) };
+    }
+
+    public void setCachedBalance(final int accountIndex, final long confirmed, final long sending, final long receiving) {
+        prefs.edit().putString(PREFS_KEY_CACHED_BALANCE + accountIndex, confirmed + "," + sending + "," + receiving).apply();
+    }
 }
@@ -56,9 +56,23 @@ public final class Constants {
         public static final String WALLET_FILENAME_PROTOBUF = "wallet-protobuf" + FILENAME_NETWORK_SUFFIX;
 
         /**
-         * How often the wallet is autosaved.
+         * Suffix of the wallet and key backup files of every account but the first, followed by the account index.
          */
-        public static final long WALLET_AUTOSAVE_DELAY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+        public static final String ACCOUNT_FILENAME_SUFFIX = "-account-";
+
+        /**
+         * @return the wallet filename of this account, account 0 keeps the single wallet name
+         */
+        public static String walletFilename(int accountIndex) {
+            return accountIndex == 0 ? WALLET_FILENAME_PROTOBUF : WALLET_FILENAME_PROTOBUF + ACCOUNT_FILENAME_SUFFIX + accountIndex;
+        }
+
+        /**
+         * @return the key backup filename of this account
+         */
+        public static String walletKeyBackupFilename(int accountIndex) {
+            return accountIndex == 0 ? WALLET_KEY_BACKUP_PROTOBUF : WALLET_KEY_BACKUP_PROTOBUF + ACCOUNT_FILENAME_SUFFIX + accountIndex;
+        }
 
         /**
          * Filename of the automatic key backup (old format, can only be read).
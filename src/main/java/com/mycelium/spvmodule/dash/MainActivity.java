@@ -103,7 +103,7 @@ public class MainActivity extends ToolbarActivity implements View.OnClickListene
         WalletManager walletManager = WalletManager.getInstance();
         String[] dummySeed = new String[]{"erode", "bridge", "organ", "you", "often", "teach", "desert", "thrive", "spike", "pottery", "sight", "sport"};
         try {
-            walletManager.restoreWalletFromSeed(this, Arrays.asList(dummySeed), Constants.NETWORK_PARAMETERS);
+            walletManager.restoreWalletFromSeed(this, 0, Arrays.asList(dummySeed), Constants.NETWORK_PARAMETERS);
             findViewById(R.id.btn4).setEnabled(false);
         } catch (IOException ex) {
             log.error("Unable to restore wallet from seed!", ex);
@@ -58,9 +58,6 @@ public class SpvDashModuleApplication extends MultiDexApplication implements Mod
     @Override
     public void onCreate() {
 
-        new LinuxSecureRandom(); // init proper random number generator
-        WalletUtils.initLogging(this);
-
         StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder().detectAll().permitDiskReads()
                 .permitDiskWrites().penaltyLog().build());
 
@@ -75,7 +72,6 @@ public class SpvDashModuleApplication extends MultiDexApplication implements Mod
 
         packageInfo = packageInfoFromContext(this);
 
-        initMnemonicCode();
         config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this), getResources());
 
         blockchainServiceIntent = new Intent(this, SpvService.class);
@@ -84,6 +80,50 @@ public class SpvDashModuleApplication extends MultiDexApplication implements Mod
 
         WalletManager.initialize(this);
         spvMessageReceiver = new SpvMessageReceiver(this);
+        startPipeline();
+    }
+
+    private void startPipeline() {
+        final WalletManager walletManager = WalletManager.getInstance();
+        StartupPipeline pipeline = StartupPipeline.getInstance();
+        pipeline.addStage(StartupPipeline.Stage.SECURE_RANDOM, new Runnable() {
+            @Override
+            public void run() {
+                new LinuxSecureRandom(); // init proper random number generator
+            }
+        });
+        pipeline.addStage(StartupPipeline.Stage.LOGGING, new Runnable() {
+            @Override
+            public void run() {
+                WalletUtils.initLogging(SpvDashModuleApplication.this);
+            }
+        });
+        pipeline.addStage(StartupPipeline.Stage.MNEMONIC_CODE, new Runnable() {
+            @Override
+            public void run() {
+                initMnemonicCode();
+            }
+        });
+        pipeline.addStage(StartupPipeline.Stage.WALLET, new Runnable() {
+            @Override
+            public void run() {
+                walletManager.loadWallets();
+            }
+        }, StartupPipeline.Stage.SECURE_RANDOM, StartupPipeline.Stage.LOGGING, StartupPipeline.Stage.MNEMONIC_CODE);
+        // after the wallets, as it always ran after them before
+        pipeline.addStage(StartupPipeline.Stage.DASH, new Runnable() {
+            @Override
+            public void run() {
+                Constants.CONTEXT.initDash(true, true);
+            }
+        }, StartupPipeline.Stage.WALLET);
+        pipeline.addStage(StartupPipeline.Stage.START, new Runnable() {
+            @Override
+            public void run() {
+                walletManager.startWallets();
+            }
+        }, StartupPipeline.Stage.DASH);
+        pipeline.start(3);
     }
 
     private void initMnemonicCode() {
@@ -99,10 +139,16 @@ public class SpvDashModuleApplication extends MultiDexApplication implements Mod
     @Override
     public void onMessage(@NonNull final String callingPackageName, @NonNull final Intent intent) {
         log.info(String.format(Locale.US, "onMessage(%s, %s)", callingPackageName, intent.getAction()));
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        // messages may create or use wallets, which needs every stage up to the service start
+        StartupPipeline.getInstance().runAfter(StartupPipeline.Stage.START, new Runnable() {
             @Override
             public void run() {
-                spvMessageReceiver.onMessage(callingPackageName, intent);
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        spvMessageReceiver.onMessage(callingPackageName, intent);
+                    }
+                });
             }
         });
     }
@@ -128,8 +174,12 @@ public class SpvDashModuleApplication extends MultiDexApplication implements Mod
         startService(blockchainServiceResetBlockchainIntent);
     }
 
-    public void broadcastTransaction(SendRequest sendRequest) {
-        Wallet wallet = WalletManager.getInstance().getWallet();
+    public void broadcastTransaction(int accountIndex, SendRequest sendRequest) {
+        Wallet wallet = WalletManager.getInstance().getWallet(accountIndex);
+        if (wallet == null) {
+            log.error("No wallet for account {}, not sending", accountIndex);
+            return;
+        }
         try {
             log.info("sending: {}", sendRequest);
             final Transaction transaction = wallet.sendCoinsOffline(sendRequest); // can take long
@@ -12,6 +12,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * This BroadcastReceiver bridges between other apps and SpvModule. It forwards requests to the
@@ -23,7 +25,7 @@ public class SpvMessageReceiver {
 
     private Context context;
     private WalletManager walletManager;
-    private boolean walletSeedAlreadyRequested = false;
+    private final Set<Integer> walletSeedAlreadyRequested = new HashSet<>();
 
     public SpvMessageReceiver(Context context) {
         this.context = context;
@@ -49,18 +51,21 @@ public class SpvMessageReceiver {
                 if (accountIndex == -1) {
                     log.error("No account specified. Skipping " + action);
                 } else {
-                    handleRequestWalletSeed(intent);
+                    handleRequestWalletSeed(accountIndex, intent);
                 }
                 break;
             }
 
             case IntentContract.ReceiveTransactions.ACTION: {
-                if (walletManager.isWalletReady()) {
-                    Wallet wallet = WalletManager.getInstance().getWallet();
+                Wallet wallet = walletManager.getWallet(Math.max(accountIndex, 0));
+                if (wallet != null) {
                     log.info(wallet.toString(true, true, true, null));
+                } else if (walletManager.getLoadState() == WalletManager.LoadState.LOADING) {
+                    // the wallet file exists, asking for the seed would replace it
+                    log.info("Wallet still loading, skipping " + action);
                 } else {
-                    if (!walletSeedAlreadyRequested) {
-                        requestPrivateKey(accountIndex);
+                    if (!walletSeedAlreadyRequested.contains(Math.max(accountIndex, 0))) {
+                        requestPrivateKey(Math.max(accountIndex, 0));
                     }
                 }
                 break;
@@ -78,21 +83,21 @@ public class SpvMessageReceiver {
     }
 
     private void requestPrivateKey(int accountIndex) {
-        if (walletManager.isWalletReady()) {
+        if (walletManager.getWallet(accountIndex) != null) {
             throw new IllegalStateException("Wallet already created");
         }
-        walletSeedAlreadyRequested = true;
+        walletSeedAlreadyRequested.add(accountIndex);
         Intent intent = new Intent(IntentContract.RequestWalletSeed.ACTION);
         intent.putExtra(IntentContract.ACCOUNT_INDEX_EXTRA, accountIndex);
         SpvDashModuleApplication.sendMbw(context, intent);
     }
 
-    private void handleRequestWalletSeed(Intent intent) {
+    private void handleRequestWalletSeed(int accountIndex, Intent intent) {
         final ArrayList<String> bip39Passphrase = intent.getStringArrayListExtra(IntentContract.RequestWalletSeed.BIP39_PASS_PHRASE_EXTRA);
         long creationTimeSeconds = intent.getLongExtra(IntentContract.RequestWalletSeed.CREATION_TIME_SECONDS_EXTRA, 0);
-        log.info("handleRequestWalletSeed");
+        log.info("handleRequestWalletSeed, accountIndex = {}", accountIndex);
         try {
-            walletManager.restoreWalletFromSeed(context, bip39Passphrase, Constants.NETWORK_PARAMETERS);
+            walletManager.restoreWalletFromSeed(context, accountIndex, bip39Passphrase, Constants.NETWORK_PARAMETERS);
         } catch (IOException ex) {
             log.error("Unable to restore wallet from seed!", ex);
         }
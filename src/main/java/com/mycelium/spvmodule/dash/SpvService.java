@@ -28,6 +28,7 @@ import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
@@ -38,7 +39,6 @@ import android.util.Log;
 
 import com.google.common.base.Stopwatch;
 import com.mycelium.spvmodule.TransactionFee;
-import com.mycelium.spvmodule.dash.providers.TransactionContentProvider;
 import com.mycelium.spvmodule.IntentContract;
 import com.mycelium.spvmodule.dash.util.ThrottlingWalletChangeListener;
 import com.mycelium.spvmodule.dash.util.WalletUtils;
@@ -82,7 +82,10 @@ import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -101,6 +104,8 @@ public class SpvService extends android.app.Service implements BlockchainService
     private BlockStore blockStore;
     private File blockChainFile;
     private BlockChain blockChain;
+    // the account wallets the chain was built for, all synced by the one peer group
+    private List<Wallet> wallets;
     @Nullable
     private PeerGroup peerGroup;
 
@@ -122,6 +127,7 @@ public class SpvService extends android.app.Service implements BlockchainService
     private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
     private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long WALLET_SAVE_TIMEOUT_MS = 5 * DateUtils.SECOND_IN_MILLIS;
 
     private static final Logger log = LoggerFactory.getLogger(SpvService.class);
 
@@ -156,7 +162,6 @@ public class SpvService extends android.app.Service implements BlockchainService
                     if (isReceived && !isReplayedTx) {
                         notificationsHelper.notifyCoinsReceived(address, amount);
                     }
-                    TransactionContentProvider.notifyWalletUpdate(getApplicationContext());
                 }
             });
         }
@@ -230,9 +235,16 @@ public class SpvService extends android.app.Service implements BlockchainService
     private final PeerDataEventListener blockchainDownloadListener = new DownloadProgressTracker() {
         private final AtomicLong lastMessageTime = new AtomicLong(0);
 
+        @Override
+        public void onChainDownloadStarted(final Peer peer, final int blocksLeft) {
+            super.onChainDownloadStarted(peer, blocksLeft);
+            walletManager.getAutosavePolicy().setBlocksLeft(blocksLeft);
+        }
+
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock, final int blocksLeft) {
             super.onBlocksDownloaded(peer, block, filteredBlock, blocksLeft);
+            walletManager.getAutosavePolicy().setBlocksLeft(blocksLeft);
 
             delayHandler.removeCallbacksAndMessages(null);
 
@@ -299,23 +311,25 @@ public class SpvService extends android.app.Service implements BlockchainService
         @SuppressLint("Wakelock")
         private void check() {
 
-            Wallet wallet = walletManager.getWallet();
-
             if (impediments.isEmpty() && peerGroup == null) {
                 log.debug("acquiring wakelock");
                 wakeLock.acquire(TimeUnit.MINUTES.toMillis(10));
 
                 // consistency check
-                final int walletLastBlockSeenHeight = wallet.getLastBlockSeenHeight();
                 final int bestChainHeight = blockChain.getBestChainHeight();
-                if (walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight) {
-                    log.error("Wallet/blockchain out of sync: {} / {}", walletLastBlockSeenHeight, bestChainHeight);
+                for (Wallet wallet : wallets) {
+                    final int walletLastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+                    if (walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight) {
+                        log.error("Wallet/blockchain out of sync: {} / {}", walletLastBlockSeenHeight, bestChainHeight);
+                    }
                 }
 
                 log.info("Starting peergroup");
                 peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
                 peerGroup.setDownloadTxDependencies(0); // recursive implementation causes StackOverflowError
-                peerGroup.addWallet(wallet);
+                for (Wallet wallet : wallets) {
+                    peerGroup.addWallet(wallet);
+                }
                 peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
                 peerGroup.addConnectedEventListener(peerConnectivityListener);
                 peerGroup.addDisconnectedEventListener(peerConnectivityListener);
@@ -406,6 +420,13 @@ public class SpvService extends android.app.Service implements BlockchainService
         }
     }
 
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            walletManager.getAutosavePolicy().setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
+
     private final BroadcastReceiver tickReceiver = new BroadcastReceiver() {
         private int lastChainHeight = 0;
         private final List<ActivityHistoryEntry> activityHistory = new LinkedList<ActivityHistoryEntry>();
@@ -499,16 +520,23 @@ public class SpvService extends android.app.Service implements BlockchainService
         notificationsHelper = new NotificationsHelper(this, config);
         walletManager = WalletManager.getInstance();
 
-        if (!walletManager.isWalletReady()) {
+        // the sync needs the loaded wallets and the Dash context, the START stage starts the service once both are there
+        if (!walletManager.isWalletReady() || !StartupPipeline.getInstance().isStageDone(StartupPipeline.Stage.DASH)) {
             log.info("Wallet not yet initialized");
             return;
         }
+        wallets = walletManager.getWallets();
 
         final PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         if (pm != null) {
             final String lockName = getPackageName() + " blockchain sync";
             wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, lockName);
+            walletManager.getAutosavePolicy().setScreenOn(isScreenOn(pm));
         }
+        final IntentFilter screenIntentFilter = new IntentFilter();
+        screenIntentFilter.addAction(Intent.ACTION_SCREEN_ON);
+        screenIntentFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, screenIntentFilter);
 
         peerConnectivityListener = new PeerConnectivityListener();
 
@@ -518,15 +546,20 @@ public class SpvService extends android.app.Service implements BlockchainService
         final boolean blockChainFileExists = blockChainFile.exists();
 
         if (!blockChainFileExists) {
-            log.info("Blockchain does not exist, resetting wallet");
-            walletManager.getWallet().reset();
+            log.info("Blockchain does not exist, resetting wallets");
+            for (Wallet wallet : wallets) {
+                wallet.reset();
+            }
         }
 
         try {
             blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile);
             blockStore.getChainHead(); // detect corruptions as early as possible
 
-            final long earliestKeyCreationTime = walletManager.getWallet().getEarliestKeyCreationTime();
+            long earliestKeyCreationTime = Long.MAX_VALUE;
+            for (Wallet wallet : wallets) {
+                earliestKeyCreationTime = Math.min(earliestKeyCreationTime, wallet.getEarliestKeyCreationTime());
+            }
 
             if (!blockChainFileExists && earliestKeyCreationTime > 0 && !Constants.TEST) {
                 try {
@@ -549,10 +582,21 @@ public class SpvService extends android.app.Service implements BlockchainService
         }
 
         try {
-            blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, walletManager.getWallet(), blockStore);
+            // accounts are saved at different heights, none may get a block it has seen already
+            WalletJournal.rewindToCommonBlock(wallets, blockStore);
+        } catch (final BlockStoreException x) {
+            log.error("Problem rewinding wallets to a common block", x);
+        }
+
+        try {
+            blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, new ArrayList<Wallet>(), blockStore);
         } catch (final BlockStoreException x) {
             throw new Error("Blockchain cannot be created", x);
         }
+        // addWallet rolls the block store back to a wallet that was saved behind it, so it gets the blocks in between
+        for (Wallet wallet : wallets) {
+            blockChain.addWallet(wallet);
+        }
 
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
@@ -560,13 +604,15 @@ public class SpvService extends android.app.Service implements BlockchainService
         intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
         registerReceiver(connectivityReceiver, intentFilter); // implicitly start PeerGroup
 
-        walletManager.getWallet().addCoinsReceivedEventListener(Threading.SAME_THREAD, walletEventListener);
-        walletManager.getWallet().addCoinsSentEventListener(Threading.SAME_THREAD, walletEventListener);
-        walletManager.getWallet().addChangeEventListener(Threading.SAME_THREAD, walletEventListener);
+        for (Wallet wallet : wallets) {
+            wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletEventListener);
+            wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletEventListener);
+            wallet.addChangeEventListener(Threading.SAME_THREAD, walletEventListener);
+        }
 
         registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 
-        walletManager.getWallet().getContext().initDashSync(getDir("masternode", MODE_PRIVATE).getAbsolutePath());
+        wallets.get(0).getContext().initDashSync(getDir("masternode", MODE_PRIVATE).getAbsolutePath());
     }
 
     @Override
@@ -574,7 +620,8 @@ public class SpvService extends android.app.Service implements BlockchainService
 
         log.debug(".onStartCommand(...)");
 
-        if (!walletManager.isWalletReady()) {
+        if (wallets == null) {
+            // created before the wallet finished loading, the service is started again once it has
             log.info("Wallet not yet initialized");
             stopSelf();
             return START_NOT_STICKY;
@@ -599,7 +646,13 @@ public class SpvService extends android.app.Service implements BlockchainService
 
                 final Sha256Hash hash = Sha256Hash
                         .wrap(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-                final Transaction tx = walletManager.getWallet().getTransaction(hash);
+                Transaction tx = null;
+                for (Wallet wallet : wallets) {
+                    tx = wallet.getTransaction(hash);
+                    if (tx != null) {
+                        break;
+                    }
+                }
                 if (tx != null) {
                     if (peerGroup != null) {
                         log.info("Broadcasting transaction " + tx.getHashAsString());
@@ -621,7 +674,8 @@ public class SpvService extends android.app.Service implements BlockchainService
                 SendRequest sendRequest = SendRequest.to(address, amount);
                 sendRequest.feePerKb = Constants.minerFeeValue(TransactionFee.valueOf(txFeeStr));
 
-                application.broadcastTransaction(sendRequest);
+                int accountIndex = intent.getIntExtra(IntentContract.ACCOUNT_INDEX_EXTRA, 0);
+                application.broadcastTransaction(accountIndex, sendRequest);
             }
         } else {
             log.warn("Service restart, although it was started as non-sticky");
@@ -630,6 +684,15 @@ public class SpvService extends android.app.Service implements BlockchainService
         return START_NOT_STICKY;
     }
 
+    @SuppressWarnings("deprecation")
+    private static boolean isScreenOn(PowerManager pm) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return pm.isInteractive();
+        } else {
+            return pm.isScreenOn();
+        }
+    }
+
     @Override
     public void onDestroy() {
         log.debug(".onDestroy()");
@@ -638,21 +701,26 @@ public class SpvService extends android.app.Service implements BlockchainService
 
         unregisterReceiver(tickReceiver);
 
-        if (!walletManager.isWalletReady()) {
+        if (wallets == null) {
             super.onDestroy();
             return;
         }
 
-        walletManager.getWallet().removeChangeEventListener(walletEventListener);
-        walletManager.getWallet().removeCoinsSentEventListener(walletEventListener);
-        walletManager.getWallet().removeCoinsReceivedEventListener(walletEventListener);
+        for (Wallet wallet : wallets) {
+            wallet.removeChangeEventListener(walletEventListener);
+            wallet.removeCoinsSentEventListener(walletEventListener);
+            wallet.removeCoinsReceivedEventListener(walletEventListener);
+        }
 
+        unregisterReceiver(screenReceiver);
         unregisterReceiver(connectivityReceiver);
 
         if (peerGroup != null) {
             peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
             peerGroup.removeConnectedEventListener(peerConnectivityListener);
-            peerGroup.removeWallet(walletManager.getWallet());
+            for (Wallet wallet : wallets) {
+                peerGroup.removeWallet(wallet);
+            }
             peerGroup.stop();
 
             log.info("Peergroup stopped");
@@ -662,13 +730,26 @@ public class SpvService extends android.app.Service implements BlockchainService
 
         delayHandler.removeCallbacksAndMessages(null);
 
+        // the wallets are written on their own thread while the block store closes
+        Future<Boolean> walletsSaved = walletManager.saveWallets();
+
         try {
             blockStore.close();
         } catch (final BlockStoreException x) {
             throw new RuntimeException(x);
         }
 
-        walletManager.saveWallet();
+        try {
+            if (!walletsSaved.get(WALLET_SAVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Not all wallets saved on shutdown, their journals are replayed on the next start");
+            }
+        } catch (final TimeoutException x) {
+            log.warn("Wallets not saved within {}ms on shutdown, the save goes on in the background", WALLET_SAVE_TIMEOUT_MS);
+        } catch (final ExecutionException x) {
+            log.warn("Problem saving wallets on shutdown", x);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
 
         if (wakeLock.isHeld()) {
             log.debug("Wakelock still held, releasing");
@@ -0,0 +1,190 @@
+package com.mycelium.spvmodule.dash;
+
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the slow parts of the application start on background threads, each stage as soon as the stages
+ * it depends on are done, so independent stages run in parallel and {@code Application.onCreate}
+ * returns right away.
+ * <p>
+ * Callers that need a stage either wait for it with {@link #awaitStage} or queue work behind it with
+ * {@link #runAfter}. The instance exists before {@code Application.onCreate}, so content provider calls
+ * that arrive early can wait as well.
+ */
+public class StartupPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupPipeline.class);
+
+    public enum Stage {
+        SECURE_RANDOM,
+        LOGGING,
+        MNEMONIC_CODE,
+        /** Reads the wallet files, see {@link WalletManager#loadWallets()}. */
+        WALLET,
+        /** Initialises the Dash specific parts of the bitcoinj context. */
+        DASH,
+        /** Starts the blockchain service for the loaded wallets. */
+        START
+    }
+
+    private static final StartupPipeline instance = new StartupPipeline();
+
+    private static class StageTask {
+        final Stage stage;
+        final Runnable task;
+        final Stage[] dependsOn;
+        int pendingDependencies;
+        long queuedAt;
+
+        StageTask(Stage stage, Runnable task, Stage[] dependsOn) {
+            this.stage = stage;
+            this.task = task;
+            this.dependsOn = dependsOn;
+            this.pendingDependencies = dependsOn.length;
+        }
+    }
+
+    private final Map<Stage, CountDownLatch> done = new EnumMap<>(Stage.class);
+
+    // guarded by "this"
+    private final Map<Stage, StageTask> tasks = new EnumMap<>(Stage.class);
+    private final Map<Stage, List<Runnable>> waiting = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> durations = new EnumMap<>(Stage.class);
+    private ExecutorService executor;
+    private long startedAt;
+
+    private StartupPipeline() {
+        for (Stage stage : Stage.values()) {
+            done.put(stage, new CountDownLatch(1));
+        }
+    }
+
+    public static StartupPipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * Adds a stage, its dependencies have to be added before it.
+     */
+    public synchronized void addStage(Stage stage, Runnable task, Stage... dependsOn) {
+        if (executor != null) {
+            throw new IllegalStateException("Startup pipeline already started");
+        }
+        if (tasks.containsKey(stage)) {
+            throw new IllegalArgumentException("Stage " + stage + " added twice");
+        }
+        for (Stage dependency : dependsOn) {
+            if (!tasks.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + stage + " depends on " + dependency + ", which was not added");
+            }
+        }
+        tasks.put(stage, new StageTask(stage, task, dependsOn));
+    }
+
+    /**
+     * Starts every stage without dependencies. The threads are created from the calling thread, so they
+     * inherit its bitcoinj context.
+     */
+    public synchronized void start(int threads) {
+        if (executor != null) {
+            throw new IllegalStateException("Startup pipeline already started");
+        }
+        executor = Executors.newFixedThreadPool(threads, new ContextPropagatingThreadFactory("startup"));
+        startedAt = System.currentTimeMillis();
+        for (StageTask task : tasks.values()) {
+            if (task.pendingDependencies == 0) {
+                submit(task);
+            }
+        }
+    }
+
+    public boolean isStageDone(Stage stage) {
+        return done.get(stage).getCount() == 0;
+    }
+
+    /**
+     * Blocks until the stage is done, never call this from a stage the given one depends on.
+     *
+     * @return false if the stage was not done within the timeout, e.g. because it failed
+     */
+    public boolean awaitStage(Stage stage, long timeout, TimeUnit unit) {
+        try {
+            return done.get(stage).await(timeout, unit);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs the runnable once the stage is done, on the thread that finished the stage, or right away on the
+     * calling thread if it is done already.
+     */
+    public void runAfter(Stage stage, Runnable runnable) {
+        synchronized (this) {
+            if (!isStageDone(stage)) {
+                List<Runnable> runnables = waiting.get(stage);
+                if (runnables == null) {
+                    runnables = new ArrayList<>();
+                    waiting.put(stage, runnables);
+                }
+                runnables.add(runnable);
+                return;
+            }
+        }
+        runnable.run();
+    }
+
+    // guarded by "this"
+    private void submit(final StageTask task) {
+        task.queuedAt = System.currentTimeMillis();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runStage(task);
+            }
+        });
+    }
+
+    private void runStage(StageTask task) {
+        long start = System.currentTimeMillis();
+        // a failing stage leaves its dependents and waiters waiting, the exception ends the process
+        task.task.run();
+        long duration = System.currentTimeMillis() - start;
+        log.info("Startup stage {} took {}ms, waited {}ms for a thread", task.stage, duration, start - task.queuedAt);
+
+        List<Runnable> runnables;
+        synchronized (this) {
+            durations.put(task.stage, duration);
+            done.get(task.stage).countDown();
+            runnables = waiting.remove(task.stage);
+            for (StageTask dependent : tasks.values()) {
+                for (Stage dependency : dependent.dependsOn) {
+                    if (dependency == task.stage && --dependent.pendingDependencies == 0) {
+                        submit(dependent);
+                    }
+                }
+            }
+            if (durations.size() == tasks.size()) {
+                executor.shutdown();
+                log.info("Startup finished after {}ms, stage durations: {}", System.currentTimeMillis() - startedAt, durations);
+            }
+        }
+        if (runnables != null) {
+            for (Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.mycelium.spvmodule.dash;
+
+import android.text.format.DateUtils;
+
+import com.google.common.base.Stopwatch;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.KeyChainEventListener;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only change log next to a wallet file, written instead of rewriting the whole wallet on every change.
+ * <p>
+ * Only what a rescan cannot bring back has to survive: transactions that are still pending. Transactions,
+ * confidence type changes and the last seen block are appended as small records, and the wallet file is
+ * rewritten ("compacted") once the journal grew large, the saved wallet fell too many blocks behind or the
+ * delay the {@link AutosavePolicy} allows after a change has passed. All of that happens on the thread of the
+ * {@link WalletPersister}. On load {@link #replay} puts the pending transactions back; the blocks seen after
+ * the last compaction, with the transactions confirmed in them, are downloaded again, as
+ * {@code BlockChain.addWallet} rolls the block store back to the height of a wallet behind it. That only works
+ * while the store reaches back that far, hence {@link #MAX_BLOCKS_BEHIND}. Every account keeps that bound, so
+ * the lowest of them is never further behind. The accounts share the chain but compact on their own schedule,
+ * so {@link #rewindToCommonBlock} brings those saved ahead back to the lowest one before the chain is built.
+ */
+class WalletJournal implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        TransactionConfidenceEventListener, WalletChangeEventListener, WalletReorganizeEventListener,
+        KeyChainEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    private static final String FILENAME_SUFFIX = ".journal";
+    private static final int MAGIC = 0x444a4e4c;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 5;
+    // type, length and checksum around every payload
+    private static final int RECORD_OVERHEAD_BYTES = 9;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private static final byte RECORD_TRANSACTION = 1;
+    private static final byte RECORD_CONFIDENCE = 2;
+    private static final byte RECORD_LAST_BLOCK = 3;
+
+    /**
+     * The chain can only roll back as far as the block store reaches, so the saved wallet must not fall further behind.
+     */
+    private static final int MAX_BLOCKS_BEHIND = 1000;
+    private static final long DETACH_TIMEOUT_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+
+    private final Wallet wallet;
+    private final File walletFile;
+    private final File journalFile;
+    private final AutosavePolicy policy;
+    private final WalletPersister persister;
+    private final ScheduledThreadPoolExecutor writer;
+
+    // guarded by "this"; listeners enter with the wallet lock held, so never call into the wallet while holding it
+    // last type recorded of the transactions that may still change it, i.e. are neither building nor dead
+    private final Map<Sha256Hash, ConfidenceType> recordedTypes = new HashMap<>();
+    private ScheduledFuture<?> scheduledCompaction;
+    private long scheduledCompactionTime;
+
+    private final AtomicReference<LastBlock> pendingLastBlock = new AtomicReference<>();
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+
+    // only used on the persistence thread
+    private boolean detached = false;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private long journalBytes;
+    private int savedLastBlockHeight;
+    private int journaledLastBlockHeight;
+
+    private static class LastBlock {
+        final int height;
+        final byte[] payload;
+
+        LastBlock(int height, byte[] payload) {
+            this.height = height;
+            this.payload = payload;
+        }
+    }
+
+    WalletJournal(Wallet wallet, File walletFile, AutosavePolicy policy, WalletPersister persister) {
+        this.wallet = wallet;
+        this.walletFile = walletFile;
+        this.journalFile = journalFile(walletFile);
+        this.policy = policy;
+        this.persister = persister;
+        this.writer = persister.getExecutor();
+    }
+
+    static File journalFile(File walletFile) {
+        return new File(walletFile.getParentFile(), walletFile.getName() + FILENAME_SUFFIX);
+    }
+
+    static void delete(File walletFile) {
+        File journalFile = journalFile(walletFile);
+        if (journalFile.exists() && !journalFile.delete()) {
+            log.warn("Could not delete wallet journal '{}'", journalFile);
+        }
+    }
+
+    /**
+     * Starts journaling, the wallet is expected to match its file at this point.
+     */
+    void attach() {
+        savedLastBlockHeight = wallet.getLastBlockSeenHeight();
+        journaledLastBlockHeight = savedLastBlockHeight;
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+    }
+
+    /**
+     * Stops journaling and waits a bounded time for the records already queued to be written. Nothing is
+     * written for this wallet afterwards, also no compaction that was still scheduled.
+     */
+    void detach() {
+        wallet.removeChangeEventListener(this);
+        wallet.removeKeyChainEventListener(this);
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeTransactionConfidenceEventListener(this);
+        wallet.removeCoinsSentEventListener(this);
+        wallet.removeCoinsReceivedEventListener(this);
+        synchronized (this) {
+            if (scheduledCompaction != null) {
+                scheduledCompaction.cancel(false);
+                scheduledCompaction = null;
+            }
+        }
+        FutureTask<Void> closed = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                detached = true;
+                sync();
+                close();
+            }
+        }, null);
+        execute(closed);
+        try {
+            closed.get(DETACH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException x) {
+            log.warn("Wallet journal '{}' not closed after {}ms", journalFile, DETACH_TIMEOUT_MS);
+        } catch (ExecutionException x) {
+            log.warn("Problem closing wallet journal '" + journalFile + "'", x);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the whole wallet and empties the journal, after the records queued so far.
+     *
+     * @return done once written, false if the wallet could not be written and the journal was kept
+     */
+    Future<Boolean> compact() {
+        return persister.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return compactNow();
+            }
+        });
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        recordTransaction(tx);
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        recordTransaction(tx);
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        // every new block changes the depth of every building transaction, only type changes are recorded
+        ConfidenceType type = tx.getConfidence().getConfidenceType();
+        Sha256Hash hash = tx.getHash();
+        synchronized (this) {
+            ConfidenceType recorded = recordedTypes.get(hash);
+            if (recorded == type || (recorded == null && type == ConfidenceType.BUILDING)) {
+                return;
+            }
+            rememberType(hash, type);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(33);
+        bytes.write(hash.getBytes(), 0, Sha256Hash.LENGTH);
+        bytes.write(type.getValue());
+        append(RECORD_CONFIDENCE, bytes.toByteArray());
+    }
+
+    @Override
+    public void onWalletChanged(Wallet wallet) {
+        Sha256Hash hash = wallet.getLastBlockSeenHash();
+        if (hash == null) {
+            return;
+        }
+        int height = wallet.getLastBlockSeenHeight();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(44);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeInt(height);
+            payload.write(hash.getBytes());
+            payload.writeLong(wallet.getLastBlockSeenTimeSecs());
+            // during a replay this fires for every block, only the newest one still waiting gets written
+            if (pendingLastBlock.getAndSet(new LastBlock(height, bytes.toByteArray())) == null) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        LastBlock lastBlock = pendingLastBlock.getAndSet(null);
+                        if (lastBlock != null) {
+                            journaledLastBlockHeight = lastBlock.height;
+                            write(RECORD_LAST_BLOCK, lastBlock.payload);
+                        }
+                    }
+                });
+            }
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+        // confidences of many transactions moved at once, cheaper to write the wallet as a whole
+        requestCompaction(0);
+    }
+
+    @Override
+    public void onKeysAdded(List<ECKey> keys) {
+        // keys are not journaled
+        requestCompaction(0);
+    }
+
+    private void recordTransaction(Transaction tx) {
+        ConfidenceType type = tx.getConfidence().getConfidenceType();
+        Sha256Hash hash = tx.getHash();
+        synchronized (this) {
+            rememberType(hash, type);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(hash.getBytes(), 0, Sha256Hash.LENGTH);
+        bytes.write(type.getValue());
+        byte[] serialized = tx.unsafeBitcoinSerialize();
+        bytes.write(serialized, 0, serialized.length);
+        append(RECORD_TRANSACTION, bytes.toByteArray());
+        requestCompaction(policy.getTransactionSaveDelayMs());
+    }
+
+    // guarded by "this"
+    private void rememberType(Sha256Hash hash, ConfidenceType type) {
+        if (type == ConfidenceType.BUILDING || type == ConfidenceType.DEAD) {
+            // without an entry a later building type is skipped and any other type recorded, which is right
+            // for both, so entries are only kept for pending transactions and the map doesn't grow with history
+            recordedTypes.remove(hash);
+        } else {
+            recordedTypes.put(hash, type);
+        }
+    }
+
+    private void append(final byte type, final byte[] payload) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                write(type, payload);
+            }
+        });
+    }
+
+    private void execute(Runnable runnable) {
+        writer.execute(runnable);
+    }
+
+    private ScheduledFuture<?> schedule(Runnable runnable, long delayMs) {
+        return writer.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(byte type, byte[] payload) {
+        if (detached) {
+            return;
+        }
+        try {
+            if (out == null) {
+                open(true);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(payload);
+            out.writeByte(type);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+            journalBytes += RECORD_OVERHEAD_BYTES + payload.length;
+            persister.onJournaled(RECORD_OVERHEAD_BYTES + payload.length);
+        } catch (IOException x) {
+            log.error("Problem appending to wallet journal '" + journalFile + "', saving the whole wallet instead", x);
+            close();
+            compactNow();
+            return;
+        }
+        if (syncScheduled.compareAndSet(false, true)) {
+            // runs after the records queued meanwhile, so one sync covers all of them
+            Runnable sync = new Runnable() {
+                @Override
+                public void run() {
+                    syncScheduled.set(false);
+                    sync();
+                }
+            };
+            long syncDelayMs = policy.getSyncDelayMs();
+            if (syncDelayMs > 0) {
+                schedule(sync, syncDelayMs);
+            } else {
+                execute(sync);
+            }
+        }
+        if (journalBytes > policy.getMaxJournalBytes()
+                || journaledLastBlockHeight - savedLastBlockHeight > MAX_BLOCKS_BEHIND) {
+            requestCompaction(0);
+        } else {
+            requestCompaction(policy.getSaveDelayMs());
+        }
+    }
+
+    /**
+     * Makes sure a compaction runs within the delay, an earlier one already scheduled is kept.
+     */
+    private void requestCompaction(long delayMs) {
+        long time = System.currentTimeMillis() + delayMs;
+        synchronized (this) {
+            if (scheduledCompaction != null) {
+                if (scheduledCompactionTime <= time) {
+                    return;
+                }
+                scheduledCompaction.cancel(false);
+            }
+            scheduledCompactionTime = time;
+            scheduledCompaction = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (WalletJournal.this) {
+                        scheduledCompaction = null;
+                    }
+                    compactNow();
+                }
+            }, delayMs);
+        }
+    }
+
+    private boolean compactNow() {
+        synchronized (this) {
+            if (scheduledCompaction != null) {
+                scheduledCompaction.cancel(false);
+                scheduledCompaction = null;
+            }
+        }
+        if (detached) {
+            // the file may belong to the wallet that replaced this one by now
+            return false;
+        }
+        // read before the save, so the gap to the chain is overestimated rather than missed
+        int lastBlockHeight = wallet.getLastBlockSeenHeight();
+        if (!persister.writeWallet(wallet, walletFile)) {
+            // the journal keeps the changes, the next record asks for another try
+            return false;
+        }
+        long compactedBytes = journalBytes;
+        savedLastBlockHeight = lastBlockHeight;
+        // everything journaled so far is in the saved wallet, records queued meanwhile are written after this
+        close();
+        try {
+            open(false);
+        } catch (IOException x) {
+            log.error("Problem emptying wallet journal '" + journalFile + "'", x);
+            close();
+        }
+        log.debug("Wallet journal '{}' compacted, had {} bytes", journalFile, compactedBytes);
+        return true;
+    }
+
+    private void open(boolean append) throws IOException {
+        fileOut = new FileOutputStream(journalFile, append);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        journalBytes = append ? journalFile.length() : 0;
+        if (journalBytes == 0) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            journalBytes = HEADER_BYTES;
+        }
+    }
+
+    private void sync() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException x) {
+            log.error("Problem syncing wallet journal '" + journalFile + "'", x);
+        }
+    }
+
+    private void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException x) {
+            // swallow
+        }
+        out = null;
+        fileOut = null;
+    }
+
+    /**
+     * Puts back the transactions that were still pending when the journal of this wallet file was last written,
+     * in the order they were recorded. Records written after the wallet file was saved are applied twice at
+     * worst, which is harmless. A torn last record, e.g. from a crash during a write, ends the replay.
+     *
+     * @return the number of transactions put back
+     */
+    static int replay(Wallet wallet, File walletFile) throws IOException {
+        File journalFile = journalFile(walletFile);
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        final Stopwatch watch = Stopwatch.createStarted();
+        Map<Sha256Hash, byte[]> transactions = new LinkedHashMap<>();
+        Map<Sha256Hash, ConfidenceType> types = new HashMap<>();
+        int lastBlockHeight = -1;
+        int records = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a wallet journal: " + journalFile);
+            }
+            while (true) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        log.warn("Wallet journal '{}' ends in a broken record", journalFile);
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(type);
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        log.warn("Wallet journal '{}' ends in a broken record", journalFile);
+                        break;
+                    }
+                } catch (EOFException x) {
+                    break;
+                }
+                records++;
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                switch (type) {
+                    case RECORD_TRANSACTION: {
+                        Sha256Hash hash = readHash(record);
+                        types.put(hash, readConfidenceType(record));
+                        byte[] serialized = new byte[payload.length - Sha256Hash.LENGTH - 1];
+                        record.readFully(serialized);
+                        transactions.put(hash, serialized);
+                        break;
+                    }
+                    case RECORD_CONFIDENCE: {
+                        Sha256Hash hash = readHash(record);
+                        types.put(hash, readConfidenceType(record));
+                        break;
+                    }
+                    case RECORD_LAST_BLOCK: {
+                        lastBlockHeight = record.readInt();
+                        break;
+                    }
+                    default: {
+                        log.warn("Skipping unknown wallet journal record type {}", type);
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        int replayed = 0;
+        for (Map.Entry<Sha256Hash, byte[]> entry : transactions.entrySet()) {
+            Sha256Hash hash = entry.getKey();
+            // confirmed ones come back with the blocks downloaded again
+            if (types.get(hash) != ConfidenceType.PENDING || wallet.getTransaction(hash) != null) {
+                continue;
+            }
+            try {
+                wallet.receivePending(new Transaction(wallet.getParams(), entry.getValue()), null);
+                replayed++;
+            } catch (VerificationException x) {
+                log.warn("Journaled transaction " + hash + " rejected", x);
+            }
+        }
+        watch.stop();
+        log.info("Wallet journal '{}' replayed, {} records, {} pending transactions put back, journaled block {} vs saved block {}, took {}",
+                journalFile, records, replayed, lastBlockHeight, wallet.getLastBlockSeenHeight(), watch);
+        return replayed;
+    }
+
+    /**
+     * Rewinds the wallets saved ahead of the others to the lowest last seen block, as a reorganize that drops
+     * the blocks above it would. {@code BlockChain.addWallet} rolls the shared block store back to that block,
+     * and every wallet receives the blocks above it again; a wallet that had seen them already would count
+     * them twice. Call this before the wallets are added to the chain.
+     *
+     * @return the number of wallets rewound
+     */
+    static int rewindToCommonBlock(List<Wallet> wallets, BlockStore blockStore) throws BlockStoreException {
+        Wallet lowest = null;
+        for (Wallet wallet : wallets) {
+            // addWallet doesn't roll back for a wallet that never saw a block
+            if (wallet.getLastBlockSeenHeight() > 0
+                    && (lowest == null || wallet.getLastBlockSeenHeight() < lowest.getLastBlockSeenHeight())) {
+                lowest = wallet;
+            }
+        }
+        if (lowest == null) {
+            return 0;
+        }
+        StoredBlock splitPoint = blockStore.get(lowest.getLastBlockSeenHash());
+        if (splitPoint == null) {
+            log.warn("Lowest last seen block {} not in the block store, wallets not rewound", lowest.getLastBlockSeenHeight());
+            return 0;
+        }
+        int rewound = 0;
+        for (Wallet wallet : wallets) {
+            if (wallet.getLastBlockSeenHeight() <= splitPoint.getHeight()) {
+                continue;
+            }
+            List<StoredBlock> oldBlocks = new ArrayList<>();
+            StoredBlock block = blockStore.get(wallet.getLastBlockSeenHash());
+            while (block != null && block.getHeight() > splitPoint.getHeight()) {
+                oldBlocks.add(block);
+                block = block.getPrev(blockStore);
+            }
+            if (block == null || !block.equals(splitPoint)) {
+                log.warn("Wallet at block {} does not build on block {}, not rewound", wallet.getLastBlockSeenHeight(),
+                        splitPoint.getHeight());
+                continue;
+            }
+            log.info("Rewinding wallet from block {} to {}", wallet.getLastBlockSeenHeight(), splitPoint.getHeight());
+            wallet.reorganize(splitPoint, oldBlocks, new ArrayList<StoredBlock>());
+            rewound++;
+        }
+        return rewound;
+    }
+
+    private static ConfidenceType readConfidenceType(DataInputStream record) throws IOException {
+        int value = record.readUnsignedByte();
+        for (ConfidenceType type : ConfidenceType.values()) {
+            if (type.getValue() == value) {
+                return type;
+            }
+        }
+        return ConfidenceType.UNKNOWN;
+    }
+
+    private static Sha256Hash readHash(DataInputStream record) throws IOException {
+        byte[] hash = new byte[Sha256Hash.LENGTH];
+        record.readFully(hash);
+        return Sha256Hash.wrap(hash);
+    }
+}
@@ -0,0 +1,262 @@
+package com.mycelium.spvmodule.dash;
+
+import com.google.common.base.Stopwatch;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.DeterministicSeed;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bitcoinj.wallet.listeners.KeyChainEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Automatic key backup of one wallet: the wallet without its transactions, written on the thread of the
+ * {@link WalletPersister} whenever the keychain changed.
+ * <p>
+ * Whether it changed is told by a fingerprint of the keychain that is cheap to compute, it is kept in the
+ * header of the backup. A backup that matches is not written again, so a start only costs reading that header.
+ * The header is followed by the stripped wallet protobuf, gzipped unless {@link #COMPRESS} is off, and a CRC32
+ * of it. {@link #read} also reads backups in the old format, the plain protobuf.
+ */
+class WalletKeyBackup implements KeyChainEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletKeyBackup.class);
+
+    private static final int MAGIC = 0x444b4250;
+    private static final int VERSION = 1;
+    private static final int FLAG_GZIP = 1;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+
+    private static final boolean COMPRESS = true;
+
+    private final Wallet wallet;
+    private final File backupFile;
+    private final WalletPersister persister;
+
+    private final AtomicBoolean backupScheduled = new AtomicBoolean();
+    private volatile boolean detached = false;
+
+    // only used on the persistence thread
+    private Sha256Hash backedUpFingerprint;
+
+    WalletKeyBackup(Wallet wallet, File backupFile, WalletPersister persister) {
+        this.wallet = wallet;
+        this.backupFile = backupFile;
+        this.persister = persister;
+    }
+
+    /**
+     * Starts following the keychain and queues a backup, written if the existing one does not match.
+     */
+    void attach() {
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
+        requestBackup();
+    }
+
+    void detach() {
+        detached = true;
+        wallet.removeKeyChainEventListener(this);
+    }
+
+    @Override
+    public void onKeysAdded(List<ECKey> keys) {
+        // issuing keys past the lookahead adds keys, so every burst of them ends up here
+        requestBackup();
+    }
+
+    private void requestBackup() {
+        if (backupScheduled.compareAndSet(false, true)) {
+            persister.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    backupScheduled.set(false);
+                    backupIfChanged();
+                }
+            });
+        }
+    }
+
+    private void backupIfChanged() {
+        if (detached) {
+            return;
+        }
+        Sha256Hash fingerprint = fingerprint(wallet);
+        if (backedUpFingerprint == null) {
+            backedUpFingerprint = readFingerprint(backupFile);
+        }
+        if (fingerprint.equals(backedUpFingerprint)) {
+            log.debug("Keychain unchanged, key backup '{}' is current", backupFile);
+            return;
+        }
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
+
+        // strip redundant
+        builder.clearTransaction();
+        builder.clearLastSeenBlockHash();
+        builder.setLastSeenBlockHeight(-1);
+        builder.clearLastSeenBlockTimeSecs();
+        final Protos.Wallet walletProto = builder.build();
+
+        try {
+            byte[] payload = walletProto.toByteArray();
+            int flags = 0;
+            if (COMPRESS) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length);
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(payload);
+                gzip.close();
+                payload = compressed.toByteArray();
+                flags |= FLAG_GZIP;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 46);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            out.write(fingerprint.getBytes());
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            WalletPersister.writeAtomically(bytes, backupFile);
+            backedUpFingerprint = fingerprint;
+            watch.stop();
+            log.info("Wallet keys backed up to: '{}', {} bytes, took {}", backupFile, bytes.size(), watch);
+        } catch (final IOException x) {
+            log.error("Problem writing wallet backup", x);
+        }
+    }
+
+    /**
+     * Hashes what makes up the keychain: whether it is encrypted, the key rotation time, the watching key
+     * and the creation time of the seed, how many keys were issued, the lookahead size and the imported keys.
+     * The keys that were only looked ahead follow from the rest.
+     */
+    static Sha256Hash fingerprint(Wallet wallet) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeBoolean(wallet.isEncrypted());
+            out.writeLong(wallet.getKeyRotationTime() != null ? wallet.getKeyRotationTime().getTime() : 0);
+            DeterministicKeyChain keyChain = wallet.getActiveKeyChain();
+            DeterministicSeed seed = keyChain.getSeed();
+            out.writeLong(seed != null ? seed.getCreationTimeSeconds() : 0);
+            DeterministicKey watchingKey = keyChain.getWatchingKey();
+            out.write(watchingKey.getPubKey());
+            out.write(watchingKey.getChainCode());
+            out.writeInt(keyChain.getIssuedExternalKeys());
+            out.writeInt(keyChain.getIssuedInternalKeys());
+            out.writeInt(keyChain.getLookaheadSize());
+            for (ECKey key : wallet.getImportedKeys()) {
+                out.write(key.getPubKey());
+                out.writeLong(key.getCreationTimeSeconds());
+            }
+            out.flush();
+        } catch (final IOException x) {
+            // cannot happen, writing to memory
+            throw new RuntimeException(x);
+        }
+        return Sha256Hash.of(bytes.toByteArray());
+    }
+
+    /**
+     * @return the fingerprint of the keychain in the backup, null if there is none or it is in the old format
+     */
+    private static Sha256Hash readFingerprint(File backupFile) {
+        if (!backupFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(backupFile));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                return null;
+            }
+            in.readByte();
+            byte[] fingerprint = new byte[Sha256Hash.LENGTH];
+            in.readFully(fingerprint);
+            return Sha256Hash.wrap(fingerprint);
+        } catch (final IOException x) {
+            log.warn("Problem reading key backup header of '" + backupFile + "'", x);
+            return null;
+        } finally {
+            closeSilently(in);
+        }
+    }
+
+    /**
+     * Reads a key backup in either format. The wallet is reset, its transactions come from a rescan.
+     */
+    static Wallet read(File backupFile) throws IOException, UnreadableWalletException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(backupFile)));
+        try {
+            in.mark(4);
+            if (in.readInt() != MAGIC) {
+                // old format
+                in.reset();
+                return new WalletProtobufSerializer().readWallet(in, true, null);
+            }
+            if (in.readByte() != VERSION) {
+                throw new IOException("Unknown key backup version: " + backupFile);
+            }
+            int flags = in.readByte();
+            in.skipBytes(Sha256Hash.LENGTH);
+            int length = in.readInt();
+            if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+                throw new IOException("Broken key backup: " + backupFile);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Key backup checksum mismatch: " + backupFile);
+            }
+            InputStream walletStream = new ByteArrayInputStream(payload);
+            if ((flags & FLAG_GZIP) != 0) {
+                walletStream = new GZIPInputStream(walletStream);
+            }
+            return new WalletProtobufSerializer().readWallet(walletStream, true, null);
+        } finally {
+            closeSilently(in);
+        }
+    }
+
+    private static void closeSilently(InputStream in) {
+        try {
+            if (in != null) {
+                in.close();
+            }
+        } catch (final IOException x) {
+            // swallow
+        }
+    }
+}
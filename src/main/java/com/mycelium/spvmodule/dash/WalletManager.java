@@ -3,7 +3,10 @@ package com.mycelium.spvmodule.dash;
 import android.content.Context;
 
 import com.google.common.base.Stopwatch;
-import com.mycelium.spvmodule.dash.providers.TransactionContentProvider;
+import com.mycelium.spvmodule.dash.providers.ContentChangeNotifier;
+import com.mycelium.spvmodule.dash.providers.data.AccountBalanceProjection;
+import com.mycelium.spvmodule.dash.providers.data.WalletReadModel;
+import com.mycelium.spvmodule.dash.providers.data.WalletSnapshot;
 
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.wallet.DeterministicSeed;
@@ -18,12 +21,18 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class WalletManager {
 
@@ -33,8 +42,43 @@ public class WalletManager {
 
     private SpvDashModuleApplication application;
 
-    private File walletFile;
-    private Wallet wallet;
+    public enum LoadState {
+        /** No wallet file yet, waiting for the seed from the Mycelium module. */
+        NO_WALLET,
+        /** Wallet files are being read in the background, only cached state is available. */
+        LOADING,
+        READY,
+        FAILED
+    }
+
+    private static class Account {
+        final int index;
+        final File walletFile;
+        final Wallet wallet;
+        final WalletReadModel readModel;
+        final WalletJournal journal;
+        final WalletKeyBackup keyBackup;
+
+        Account(int index, File walletFile, File backupFile, Wallet wallet, AutosavePolicy autosavePolicy, WalletPersister persister) {
+            this.index = index;
+            this.walletFile = walletFile;
+            this.wallet = wallet;
+            this.readModel = new WalletReadModel(wallet);
+            this.journal = new WalletJournal(wallet, walletFile, autosavePolicy, persister);
+            this.keyBackup = new WalletKeyBackup(wallet, backupFile, persister);
+        }
+    }
+
+    // copy-on-write, replaced as a whole whenever an account is added or restored
+    private volatile SortedMap<Integer, Account> accounts = Collections.unmodifiableSortedMap(new TreeMap<Integer, Account>());
+    private final ContentChangeNotifier contentChangeNotifier;
+    private final AutosavePolicy autosavePolicy = new AutosavePolicy();
+    private final WalletPersister persister = new WalletPersister();
+
+    private volatile LoadState loadState;
+    // last seen block of the accounts still loading, known as soon as their file is parsed
+    private final Map<Integer, Integer> loadingLastSeenBlockHeights = new ConcurrentHashMap<>();
+    private final List<Integer> accountsToLoad;
 
     public static void initialize(SpvDashModuleApplication application) {
         if (instance != null) {
@@ -52,9 +96,38 @@ public class WalletManager {
 
     private WalletManager(SpvDashModuleApplication application) {
         this.application = application;
+        this.contentChangeNotifier = new ContentChangeNotifier(application);
 
-        walletFile = application.getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
-        loadWalletFromProtobuf(application);
+        // only the file names are read here, parsing grows with the history and is left to loadWallets()
+        accountsToLoad = findAccountIndices(application);
+        if (accountsToLoad.isEmpty()) {
+            log.info("Wallet was not yet initialized by Mycelium module");
+            loadState = LoadState.NO_WALLET;
+            return;
+        }
+        for (int accountIndex : accountsToLoad) {
+            loadingLastSeenBlockHeights.put(accountIndex, -1);
+        }
+        loadState = LoadState.LOADING;
+    }
+
+    /**
+     * Reads the wallet files found on initialization on the calling thread, the
+     * {@link StartupPipeline.Stage#WALLET} stage.
+     */
+    public void loadWallets() {
+        if (loadState == LoadState.LOADING) {
+            loadWalletsFromProtobuf(application, accountsToLoad);
+        }
+    }
+
+    /**
+     * Starts the blockchain service for the wallets loaded on startup, the {@link StartupPipeline.Stage#START} stage.
+     */
+    public void startWallets() {
+        if (isWalletReady()) {
+            afterLoadWallets();
+        }
     }
 
     public static boolean isInitialized() {
@@ -62,55 +135,194 @@ public class WalletManager {
     }
 
     public boolean isWalletReady() {
-        return wallet != null;
+        return loadState == LoadState.READY;
+    }
+
+    public AutosavePolicy getAutosavePolicy() {
+        return autosavePolicy;
+    }
+
+    public LoadState getLoadState() {
+        return loadState;
+    }
+
+    private void setLoadState(LoadState loadState) {
+        this.loadState = loadState;
+        contentChangeNotifier.markDirty(ContentChangeNotifier.Table.WALLET_STATE);
+    }
+
+    /**
+     * @return indices of the accounts found on disk, including those still loading
+     */
+    public List<Integer> getKnownAccountIndices() {
+        List<Integer> accountIndices = new ArrayList<>(accounts.keySet());
+        for (int accountIndex : loadingLastSeenBlockHeights.keySet()) {
+            if (!accountIndices.contains(accountIndex)) {
+                accountIndices.add(accountIndex);
+            }
+        }
+        Collections.sort(accountIndices);
+        return accountIndices;
     }
 
+    /**
+     * @return the last block seen by the wallet of this account, also while it is loading, or -1 if not known yet
+     */
+    public int getLastSeenBlockHeight(int accountIndex) {
+        Account account = accounts.get(accountIndex);
+        if (account != null) {
+            // called on Binder threads, never build a snapshot here
+            return account.readModel.getLastBlockSeenHeight();
+        }
+        Integer height = loadingLastSeenBlockHeights.get(accountIndex);
+        return height != null ? height : -1;
+    }
+
+    /**
+     * @return the balance of this account as of its last change before the app was started, or null
+     */
+    public AccountBalanceProjection.Balance getCachedBalance(int accountIndex) {
+        long[] cached = application.getConfiguration().getCachedBalance(accountIndex);
+        return cached != null ? new AccountBalanceProjection.Balance(cached[0], cached[1], cached[2]) : null;
+    }
+
+    /**
+     * @return the wallet of the first account
+     */
     public Wallet getWallet() {
-        return wallet;
+        SortedMap<Integer, Account> accounts = this.accounts;
+        return accounts.isEmpty() ? null : accounts.get(accounts.firstKey()).wallet;
+    }
+
+    /**
+     * @return the wallet of this account, or null if there is no such account
+     */
+    public Wallet getWallet(int accountIndex) {
+        Account account = accounts.get(accountIndex);
+        return account != null ? account.wallet : null;
     }
 
-    private void loadWalletFromProtobuf(Context context) {
-        if (walletFile.exists()) {
-            FileInputStream walletStream = null;
-            try {
-                final Stopwatch watch = Stopwatch.createStarted();
-                walletStream = new FileInputStream(walletFile);
-                wallet = new WalletProtobufSerializer().readWallet(walletStream);
-                watch.stop();
+    /**
+     * @return the wallets of all accounts, ordered by account index
+     */
+    public List<Wallet> getWallets() {
+        List<Wallet> wallets = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            wallets.add(account.wallet);
+        }
+        return wallets;
+    }
 
-                if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS)) {
-                    throw new UnreadableWalletException("Bad wallet network parameters: " + wallet.getParams().getId());
-                }
+    public List<Integer> getAccountIndices() {
+        return new ArrayList<>(accounts.keySet());
+    }
 
-                log.info("Wallet loaded from: '{}', took {}", walletFile, watch);
+    /**
+     * @return the read model of this account, or null if there is no such account
+     */
+    public WalletReadModel getReadModel(int accountIndex) {
+        Account account = accounts.get(accountIndex);
+        return account != null ? account.readModel : null;
+    }
 
-            } catch (final FileNotFoundException | UnreadableWalletException x) {
-                log.error("Problem loading wallet", x);
-                wallet = restoreWalletFromBackup(context);
-            } finally {
-                closeSilently(walletStream);
+    private static List<Integer> findAccountIndices(Context context) {
+        List<Integer> accountIndices = new ArrayList<>();
+        String accountPrefix = Constants.Files.WALLET_FILENAME_PROTOBUF + Constants.Files.ACCOUNT_FILENAME_SUFFIX;
+        for (String filename : context.fileList()) {
+            if (filename.equals(Constants.Files.WALLET_FILENAME_PROTOBUF)) {
+                accountIndices.add(0);
+            } else if (filename.startsWith(accountPrefix)) {
+                try {
+                    accountIndices.add(Integer.parseInt(filename.substring(accountPrefix.length())));
+                } catch (NumberFormatException x) {
+                    // e.g. a temporary file of the autosave
+                }
             }
+        }
+        Collections.sort(accountIndices);
+        return accountIndices;
+    }
 
-            if (!wallet.isConsistent()) {
-                log.error("Wallet is not consistent, restoring from backup");
-                wallet = restoreWalletFromBackup(context);
+    private void loadWalletsFromProtobuf(Context context, List<Integer> accountIndices) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        try {
+            // before any account queues a write, the temporary files of the persister match too
+            cleanupFiles(context);
+            for (int accountIndex : accountIndices) {
+                loadWalletFromProtobuf(context, accountIndex);
+                loadingLastSeenBlockHeights.remove(accountIndex);
             }
+            setLoadState(LoadState.READY);
+            watch.stop();
+            log.info("{} wallet(s) loaded, took {}", accountIndices.size(), watch);
+        } catch (RuntimeException | Error x) {
+            setLoadState(LoadState.FAILED);
+            throw x;
+        }
+    }
 
-            if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS)) {
-                throw new RuntimeException("Bad wallet network parameters: " + wallet.getParams().getId());
+    private void loadWalletFromProtobuf(Context context, int accountIndex) {
+        File walletFile = context.getFileStreamPath(Constants.Files.walletFilename(accountIndex));
+        Wallet wallet;
+        FileInputStream walletStream = null;
+        try {
+            final Stopwatch watch = Stopwatch.createStarted();
+            walletStream = new FileInputStream(walletFile);
+            // the raw message already tells the network and the last seen block, before transactions are built
+            Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(walletStream);
+            if (!walletProto.getNetworkIdentifier().equals(Constants.NETWORK_PARAMETERS.getId())) {
+                throw new UnreadableWalletException("Bad wallet network parameters: " + walletProto.getNetworkIdentifier());
+            }
+            if (walletProto.hasLastSeenBlockHeight()) {
+                loadingLastSeenBlockHeights.put(accountIndex, walletProto.getLastSeenBlockHeight());
+                contentChangeNotifier.markDirty(ContentChangeNotifier.Table.WALLET_STATE);
             }
+            log.info("Wallet file '{}' parsed, {} transactions, took {}", walletFile, walletProto.getTransactionCount(), watch);
 
-            afterLoadWallet(context);
-            cleanupFiles(context);
+            wallet = new WalletProtobufSerializer().readWallet(Constants.NETWORK_PARAMETERS, null, walletProto);
+            watch.stop();
 
-        } else {
-            log.info("Wallet was not yet initialized by Mycelium module");
+            log.info("Wallet loaded from: '{}', took {}", walletFile, watch);
+        } catch (final IOException x) {
+            log.error("Problem loading wallet", x);
+            wallet = restoreWalletFromBackup(context, accountIndex);
+        } catch (final UnreadableWalletException x) {
+            log.error("Problem loading wallet", x);
+            wallet = restoreWalletFromBackup(context, accountIndex);
+        } finally {
+            closeSilently(walletStream);
+        }
+
+        try {
+            WalletJournal.replay(wallet, walletFile);
+        } catch (final IOException x) {
+            log.error("Problem replaying wallet journal, transactions pending since the last save are lost", x);
+        }
+
+        if (!wallet.isConsistent()) {
+            log.error("Wallet is not consistent, restoring from backup");
+            wallet = restoreWalletFromBackup(context, accountIndex);
+        }
+
+        if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS)) {
+            throw new RuntimeException("Bad wallet network parameters: " + wallet.getParams().getId());
         }
+
+        afterLoadWallet(context, new Account(accountIndex, walletFile,
+                context.getFileStreamPath(Constants.Files.walletKeyBackupFilename(accountIndex)), wallet, autosavePolicy, persister));
     }
 
-    private void afterLoadWallet(Context context) {
-        wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, null);
-        // clean up spam
+    private void afterLoadWallet(Context context, final Account account) {
+        Wallet wallet = account.wallet;
+        Account previous = accounts.get(account.index);
+        if (previous != null) {
+            previous.readModel.detach();
+            previous.journal.detach();
+            previous.keyBackup.detach();
+            // the new wallet was saved as a whole, what the previous one journaled does not apply to it
+            WalletJournal.delete(account.walletFile);
+        }
+        // clean up spam first, cleanup() tells no listener, so the read model must not have indexed the wallet yet
         try {
             wallet.cleanup();
         } catch (IllegalStateException x) {
@@ -126,14 +338,36 @@ public class WalletManager {
             }
         }
 
-        // make sure there is at least one recent backup
-        if (!context.getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF).exists()) {
-            backupWallet(context);
-        }
+        account.readModel.setOnSnapshotPublishedListener(new WalletReadModel.OnSnapshotPublishedListener() {
+            private WalletSnapshot previous;
+            private AccountBalanceProjection.Balance cached;
+
+            @Override
+            public void onSnapshotPublished(WalletSnapshot snapshot) {
+                contentChangeNotifier.onSnapshotPublished(previous, snapshot);
+                previous = snapshot;
+                // kept for the next start, so the balance can be answered before the wallet is loaded
+                AccountBalanceProjection.Balance balance = snapshot.balance;
+                if (balance != cached) {
+                    cached = balance;
+                    application.getConfiguration().setCachedBalance(account.index, balance.confirmed, balance.sending, balance.receiving);
+                }
+            }
+        });
+        account.readModel.attach();
+        SortedMap<Integer, Account> updated = new TreeMap<>(accounts);
+        updated.put(account.index, account);
+        accounts = Collections.unmodifiableSortedMap(updated);
+
+        account.journal.attach();
 
-        wallet.getContext().initDash(true, true);
+        // written in the background, and only if the keychain differs from the one backed up
+        account.keyBackup.attach();
+    }
+
+    private void afterLoadWallets() {
         application.startBlockchainService(true);
-        TransactionContentProvider.notifyCurrentReceiveAddress(context);
+        contentChangeNotifier.markDirty(ContentChangeNotifier.Table.values());
     }
 
     private void cleanupFiles(Context context) {
@@ -149,34 +383,13 @@ public class WalletManager {
         }
     }
 
-    public void backupWallet(Context context) {
-        final Stopwatch watch = Stopwatch.createStarted();
-        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-        // strip redundant
-        builder.clearTransaction();
-        builder.clearLastSeenBlockHash();
-        builder.setLastSeenBlockHeight(-1);
-        builder.clearLastSeenBlockTimeSecs();
-        final Protos.Wallet walletProto = builder.build();
-
-        OutputStream os = null;
-        try {
-            os = context.openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, Context.MODE_PRIVATE);
-            walletProto.writeTo(os);
-            watch.stop();
-            log.info("Wallet backed up to: '{}', took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, watch);
-        } catch (final IOException x) {
-            log.error("Problem writing wallet backup", x);
-        } finally {
-            closeSilently(os);
-        }
-    }
-
-    public void restoreWalletFromSeed(Context context, List<String> words, NetworkParameters expectedNetworkParameters) throws IOException {
-
+    /**
+     * Creates or replaces the wallet of an account. A new account next to existing ones resets the shared
+     * blockchain, so that the history of the new wallet is picked up by the next sync.
+     */
+    public void restoreWalletFromSeed(Context context, int accountIndex, List<String> words, NetworkParameters expectedNetworkParameters) throws IOException {
         DeterministicSeed deterministicSeed = new DeterministicSeed(words, null, "", Constants.EARLIEST_HD_SEED_CREATION_TIME);
-        wallet = new Wallet(Constants.NETWORK_PARAMETERS, new KeyChainGroup(Constants.NETWORK_PARAMETERS, deterministicSeed));
+        Wallet wallet = new Wallet(Constants.NETWORK_PARAMETERS, new KeyChainGroup(Constants.NETWORK_PARAMETERS, deterministicSeed));
 
         if (!wallet.getParams().equals(expectedNetworkParameters)) {
             throw new IOException("Bad wallet backup network parameters: " + wallet.getParams().getId());
@@ -185,50 +398,74 @@ public class WalletManager {
             throw new IOException("Inconsistent wallet backup");
         }
 
-        log.info("Wallet successfully restored from seed");
+        log.info("Wallet of account {} successfully restored from seed", accountIndex);
 
-        walletFile = context.getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
+        File walletFile = context.getFileStreamPath(Constants.Files.walletFilename(accountIndex));
+        if (!accounts.containsKey(accountIndex)) {
+            // left over from a wallet of this account that is gone
+            WalletJournal.delete(walletFile);
+        }
         wallet.saveToFile(walletFile);
 
-        afterLoadWallet(context);
+        boolean addsAccount = !accounts.isEmpty() && !accounts.containsKey(accountIndex);
+        afterLoadWallet(context, new Account(accountIndex, walletFile,
+                context.getFileStreamPath(Constants.Files.walletKeyBackupFilename(accountIndex)), wallet, autosavePolicy, persister));
+        setLoadState(LoadState.READY);
+        if (addsAccount) {
+            // the running service built its chain for the other wallets, it picks this one up after the reset
+            application.resetBlockchain();
+            contentChangeNotifier.markDirty(ContentChangeNotifier.Table.values());
+        } else {
+            afterLoadWallets();
+        }
     }
 
-    private Wallet restoreWalletFromBackup(Context context) {
-        InputStream is = null;
-        String backupFilePath = Constants.Files.WALLET_KEY_BACKUP_PROTOBUF;
+    private Wallet restoreWalletFromBackup(Context context, int accountIndex) {
+        String backupFilePath = Constants.Files.walletKeyBackupFilename(accountIndex);
         try {
-            is = context.openFileInput(backupFilePath);
-            final Wallet wallet = new WalletProtobufSerializer().readWallet(is, true, null);
+            final Wallet wallet = WalletKeyBackup.read(context.getFileStreamPath(backupFilePath));
             if (!wallet.isConsistent()) {
                 throw new RuntimeException("Inconsistent backup: " + backupFilePath);
             }
 
             application.resetBlockchain();
+            // the rescan brings back everything the journal could
+            WalletJournal.delete(context.getFileStreamPath(Constants.Files.walletFilename(accountIndex)));
 
             log.info("Wallet restored from backup " + backupFilePath);
 
             return wallet;
         } catch (final IOException | UnreadableWalletException x) {
             throw new Error("Cannot read backup " + backupFilePath, x);
-        } finally {
-            closeSilently(is);
         }
     }
 
-    public void saveWallet() {
-        try {
-            protobufSerializeWallet(wallet);
-        } catch (final IOException x) {
-            throw new RuntimeException(x);
+    /**
+     * Queues writing every wallet as a whole and emptying its journal, behind what the persistence thread
+     * has queued already.
+     *
+     * @return true once all wallets are written, false once done if any of them could not be written
+     */
+    public Future<Boolean> saveWallets() {
+        final List<Future<Boolean>> saves = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            saves.add(account.journal.compact());
         }
-    }
-
-    private void protobufSerializeWallet(final Wallet wallet) throws IOException {
-        final Stopwatch watch = Stopwatch.createStarted();
-        wallet.saveToFile(walletFile);
-        watch.stop();
-
-        log.info("Wallet saved to: '{}', took {}", walletFile, watch);
+        // the persistence thread runs tasks in order, so the saves are done when this runs
+        return persister.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean saved = true;
+                for (Future<Boolean> save : saves) {
+                    try {
+                        saved &= save.get();
+                    } catch (final InterruptedException | ExecutionException | CancellationException x) {
+                        saved = false;
+                    }
+                }
+                return saved;
+            }
+        });
     }
 
     private void closeSilently(Closeable stream) {
@@ -0,0 +1,125 @@
+package com.mycelium.spvmodule.dash;
+
+import com.google.common.base.Stopwatch;
+
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one thread that writes wallet data to disk, shared by the journals of all accounts, and the metrics of
+ * what it wrote.
+ * <p>
+ * Whole wallets are serialized into memory first, so the wallet lock is only held for that and not while
+ * the disk is slow, and then replace the wallet file atomically. A failed write is counted and logged; the
+ * journal still holds the changes, so nothing is thrown at the caller.
+ */
+class WalletPersister {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletPersister.class);
+
+    private static final String TEMP_FILENAME_SUFFIX = ".tmp";
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong failedSaves = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong saveMillis = new AtomicLong();
+    private final AtomicLong maxSaveMillis = new AtomicLong();
+    private final AtomicLong journaledBytes = new AtomicLong();
+
+    /**
+     * Creates the thread, which inherits the bitcoinj context of the calling thread.
+     */
+    WalletPersister() {
+        executor = new ScheduledThreadPoolExecutor(1, new ContextPropagatingThreadFactory("wallet persistence"));
+        // compactions cancelled by an earlier request or a detach must not pile up for minutes
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    ScheduledThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Replaces the wallet file with the current state of the wallet via a synced temporary file. Only call this
+     * on the persistence thread.
+     *
+     * @return false if the wallet could not be written, the previous file is left in place then
+     */
+    boolean writeWallet(Wallet wallet, File walletFile) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        long bytes;
+        try {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            wallet.saveToFileStream(serialized);
+            bytes = serialized.size();
+            writeAtomically(serialized, walletFile);
+        } catch (IOException | RuntimeException x) {
+            long failed = failedSaves.incrementAndGet();
+            log.error("Problem saving wallet to '" + walletFile + "', " + failed + " failed saves so far", x);
+            return false;
+        }
+        watch.stop();
+        onSaved(walletFile, bytes, watch.elapsed(TimeUnit.MILLISECONDS));
+        return true;
+    }
+
+    /**
+     * Replaces the file with the bytes via a synced temporary file, the previous file is left in place if that
+     * fails.
+     */
+    static void writeAtomically(ByteArrayOutputStream bytes, File file) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_FILENAME_SUFFIX);
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                bytes.writeTo(out);
+                out.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException x) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw x;
+        }
+    }
+
+    void onJournaled(int bytes) {
+        journaledBytes.addAndGet(bytes);
+    }
+
+    private void onSaved(File walletFile, long bytes, long millis) {
+        long count = saves.incrementAndGet();
+        long totalBytes = savedBytes.addAndGet(bytes);
+        long totalMillis = saveMillis.addAndGet(millis);
+        long max;
+        do {
+            max = maxSaveMillis.get();
+        } while (millis > max && !maxSaveMillis.compareAndSet(max, millis));
+        log.info("Wallet saved to '{}', {} bytes in {}ms; {} saves so far, {} failed, {} bytes in {}ms, slowest {}ms, {} bytes journaled",
+                walletFile, bytes, millis, count, failedSaves.get(), totalBytes, totalMillis, maxSaveMillis.get(),
+                journaledBytes.get());
+    }
+}
@@ -0,0 +1,151 @@
+package com.mycelium.spvmodule.dash.providers;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+
+import com.mycelium.spvmodule.dash.providers.data.AccountBalanceProjection;
+import com.mycelium.spvmodule.dash.providers.data.ReceiveAddressPool;
+import com.mycelium.spvmodule.dash.providers.data.WalletSnapshot;
+import com.mycelium.spvmodule.providers.TransactionContract;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tells the host which {@link TransactionContentProvider} tables changed.
+ * <p>
+ * Tables are marked dirty once the {@link WalletSnapshot} that queries read differs from the one before, so
+ * a query the notification causes sees the change. The dirty set is flushed at most once per
+ * {@link #COALESCE_WINDOW_MS}, so a rescan publishing a snapshot per block wakes the host a few times
+ * instead of thousands of times.
+ */
+public class ContentChangeNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentChangeNotifier.class);
+
+    private static final long COALESCE_WINDOW_MS = DateUtils.SECOND_IN_MILLIS;
+
+    public enum Table {
+        TRANSACTION_SUMMARY, TRANSACTION_DETAILS, ACCOUNT_BALANCE, CURRENT_RECEIVE_ADDRESS, WALLET_STATE
+    }
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // guarded by "this"
+    private final EnumSet<Table> dirty = EnumSet.noneOf(Table.class);
+    private boolean flushScheduled = false;
+    private long lastFlushTime = 0;
+
+    public ContentChangeNotifier(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Marks the tables whose rows differ between two snapshots of one wallet, call this after the newer one
+     * was published.
+     *
+     * @param previous the snapshot published before for the same wallet, null for the first one
+     */
+    public void onSnapshotPublished(@Nullable WalletSnapshot previous, WalletSnapshot published) {
+        if (previous == null) {
+            // the host may have shown cached values until now
+            markDirty(Table.TRANSACTION_SUMMARY, Table.TRANSACTION_DETAILS, Table.ACCOUNT_BALANCE,
+                    Table.CURRENT_RECEIVE_ADDRESS);
+            return;
+        }
+        EnumSet<Table> changed = EnumSet.noneOf(Table.class);
+        // the summaries carry the depth as well, so they change whenever the details do
+        if (previous.transactionSummaries != published.transactionSummaries) {
+            changed.add(Table.TRANSACTION_SUMMARY);
+            changed.add(Table.TRANSACTION_DETAILS);
+        }
+        if (!sameBalance(previous.balance, published.balance)) {
+            changed.add(Table.ACCOUNT_BALANCE);
+        }
+        if (!sameAddress(previous.currentReceiveAddress, published.currentReceiveAddress)) {
+            changed.add(Table.CURRENT_RECEIVE_ADDRESS);
+        }
+        if (!changed.isEmpty()) {
+            markDirty(changed.toArray(new Table[changed.size()]));
+        }
+    }
+
+    private static boolean sameBalance(AccountBalanceProjection.Balance a, AccountBalanceProjection.Balance b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.confirmed == b.confirmed && a.sending == b.sending && a.receiving == b.receiving;
+    }
+
+    private static boolean sameAddress(ReceiveAddressPool.Entry a, ReceiveAddressPool.Entry b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.address.equals(b.address);
+    }
+
+    public void markDirty(Table... tables) {
+        long delay;
+        synchronized (this) {
+            for (Table table : tables) {
+                dirty.add(table);
+            }
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+            long sinceLastFlush = System.currentTimeMillis() - lastFlushTime;
+            delay = sinceLastFlush >= COALESCE_WINDOW_MS ? 0 : COALESCE_WINDOW_MS - sinceLastFlush;
+        }
+        handler.postDelayed(flush, delay);
+    }
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            EnumSet<Table> tables;
+            synchronized (ContentChangeNotifier.this) {
+                tables = EnumSet.copyOf(dirty);
+                dirty.clear();
+                flushScheduled = false;
+                lastFlushTime = System.currentTimeMillis();
+            }
+            String packageName = context.getPackageName();
+            for (Table table : tables) {
+                context.getContentResolver().notifyChange(contentUri(table, packageName), null);
+            }
+            log.debug("Notified changes of {}", tables);
+        }
+    };
+
+    private static Uri contentUri(Table table, String packageName) {
+        switch (table) {
+            case TRANSACTION_SUMMARY: {
+                return TransactionContract.TransactionSummary.CONTENT_URI(packageName);
+            }
+            case TRANSACTION_DETAILS: {
+                return TransactionContract.TransactionDetails.CONTENT_URI(packageName);
+            }
+            case ACCOUNT_BALANCE: {
+                return TransactionContract.AccountBalance.CONTENT_URI(packageName);
+            }
+            case CURRENT_RECEIVE_ADDRESS: {
+                return TransactionContract.CurrentReceiveAddress.CONTENT_URI(packageName);
+            }
+            case WALLET_STATE: {
+                return DashTransactionContract.WalletState.CONTENT_URI(packageName);
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown table " + table);
+            }
+        }
+    }
+}
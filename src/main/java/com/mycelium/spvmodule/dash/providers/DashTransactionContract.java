@@ -0,0 +1,193 @@
+package com.mycelium.spvmodule.dash.providers;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.mycelium.spvmodule.providers.TransactionContract;
+
+/**
+ * Additions to {@link com.mycelium.spvmodule.providers.TransactionContract} that only the Dash module
+ * understands. Hosts that don't know about them keep getting the plain contract behaviour.
+ */
+public final class DashTransactionContract {
+
+    private DashTransactionContract() {
+    }
+
+    public static final class TransactionSummary {
+        /**
+         * Query parameter, maximum number of rows to return.
+         */
+        public static final String PARAM_LIMIT = "limit";
+        /**
+         * Query parameter, only return rows older than this time (seconds), together with
+         * {@link #PARAM_BEFORE_TXID} it points at the last row of the previous page.
+         */
+        public static final String PARAM_BEFORE_TIME = "before_time";
+        /**
+         * Query parameter, txid of the last row of the previous page.
+         */
+        public static final String PARAM_BEFORE_TXID = "before_txid";
+        /**
+         * Boolean cursor extra, true if there are more rows after the returned window.
+         */
+        public static final String EXTRA_HAS_MORE = "has_more";
+    }
+
+    /**
+     * Query parameter selecting the account of tables without an account {@code _ID}, 0 if left out.
+     * ACCOUNT_BALANCE and CURRENT_RECEIVE_ADDRESS take the account index as their {@code _ID} and return
+     * one row per account when queried without one.
+     */
+    public static final String PARAM_ACCOUNT_INDEX = "account";
+
+    /**
+     * Methods for {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} on the
+     * provider authority, the scalar counterparts of the single row tables. Arguments and results use the
+     * column names of the matching {@link TransactionContract} table as bundle keys.
+     */
+    public static final class Call {
+        /**
+         * arg: the address. Result: {@link TransactionContract.ValidateAddress#IS_VALID} boolean.
+         */
+        public static final String METHOD_VALIDATE_ADDRESS = "validate_address";
+        /**
+         * arg: the QR code. Result: {@link TransactionContract.ValidateQrCode#IS_VALID} boolean and, for a
+         * valid code, the {@link ValidateQrCode} values.
+         */
+        public static final String METHOD_VALIDATE_QR_CODE = "validate_qr_code";
+        /**
+         * Result: {@link TransactionContract.AccountBalance#CONFIRMED}, {@link TransactionContract.AccountBalance#SENDING}
+         * and {@link TransactionContract.AccountBalance#RECEIVING} longs in duffs.
+         */
+        public static final String METHOD_GET_ACCOUNT_BALANCE = "get_account_balance";
+        /**
+         * Extras: {@link TransactionContract.CalculateMaxSpendable#TX_FEE} fee name.
+         * Result: {@link TransactionContract.CalculateMaxSpendable#MAX_SPENDABLE} long in duffs.
+         */
+        public static final String METHOD_CALCULATE_MAX_SPENDABLE = "calculate_max_spendable";
+        /**
+         * Extras: {@link TransactionContract.CheckSendAmount#TX_FEE} fee name and
+         * {@link TransactionContract.CheckSendAmount#AMOUNT_TO_SEND} long in duffs.
+         * Result: {@link TransactionContract.CheckSendAmount#RESULT} result name.
+         */
+        public static final String METHOD_CHECK_SEND_AMOUNT = "check_send_amount";
+        /**
+         * Answered while the wallet is still loading. Extras: {@link #EXTRA_ACCOUNT_INDEX}.
+         * Result: {@link WalletState#STATE} and {@link WalletState#LAST_BLOCK_SEEN_HEIGHT} of that account.
+         */
+        public static final String METHOD_GET_WALLET_STATE = "get_wallet_state";
+        /**
+         * Int extra selecting the account of the wallet-bound methods, 0 if left out.
+         */
+        public static final String EXTRA_ACCOUNT_INDEX = "account_index";
+    }
+
+    /**
+     * Columns VALIDATE_QR_CODE returns in addition to the contract ones, all null if the code is not valid.
+     * The {@link Call#METHOD_VALIDATE_QR_CODE} result carries them under the same keys.
+     */
+    public static final class ValidateQrCode {
+        /**
+         * Base58 address, null if the URI only has a payment request URL.
+         */
+        public static final String ADDRESS = "address";
+        /**
+         * Amount in duffs, null if the URI has none.
+         */
+        public static final String AMOUNT = "amount";
+        public static final String LABEL = "label";
+        public static final String MESSAGE = "message";
+        /**
+         * 1 if the URI asks for InstantSend.
+         */
+        public static final String IS_INSTANT_SEND = "is_instant_send";
+        /**
+         * BIP72 payment request URL.
+         */
+        public static final String PAYMENT_REQUEST_URL = "payment_request_url";
+    }
+
+    public static final class TransactionDetails {
+        /**
+         * Selection for a batch query on {@code transaction_details}, every selection argument is a txid.
+         * Returns one row per txid known to the wallet, unknown txids are left out.
+         */
+        public static final String SELECTION_TXIDS = TransactionContract.TransactionDetails._ID + " IN (?)";
+    }
+
+    /**
+     * One row per input and output of a transaction, inputs first, at
+     * {@code transaction_details/<txid>/items}.
+     */
+    public static final class TransactionDetailsItem {
+        public static final String PATH_ITEMS = "items";
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/vnd.com.mycelium.spvmodule.dash.transaction_details_item";
+
+        public static final String TXID = "txid";
+        /**
+         * 1 for an input, 0 for an output.
+         */
+        public static final String IS_INPUT = "is_input";
+        /**
+         * Position of the input or output within its transaction.
+         */
+        public static final String ITEM_INDEX = "item_index";
+        /**
+         * Value in duffs, 0 for inputs whose connected output is unknown.
+         */
+        public static final String VALUE = "value";
+        /**
+         * Base58 address, the all-zero address where the script has none.
+         */
+        public static final String ADDRESS = "address";
+        public static final String IS_COINBASE = "is_coinbase";
+
+        public static Uri CONTENT_URI(String packageName, String txid) {
+            return new Uri.Builder()
+                    .scheme(ContentResolver.SCHEME_CONTENT)
+                    .authority(TransactionContract.AUTHORITY(packageName))
+                    .appendPath(TransactionContract.TransactionDetails.TABLE_NAME)
+                    .appendPath(txid)
+                    .appendPath(PATH_ITEMS)
+                    .build();
+        }
+    }
+
+    /**
+     * One row per account found on disk, at {@code wallet_state}. Until {@link #STATE} is
+     * {@link #STATE_READY} only ACCOUNT_BALANCE is answered, from the balance cached on the last run.
+     */
+    public static final class WalletState {
+        public static final String TABLE_NAME = "wallet_state";
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/vnd.com.mycelium.spvmodule.dash.wallet_state";
+
+        /**
+         * The account index.
+         */
+        public static final String _ID = "_id";
+        /**
+         * One of {@link #STATE_NO_WALLET}, {@link #STATE_LOADING}, {@link #STATE_READY} or {@link #STATE_FAILED}.
+         */
+        public static final String STATE = "state";
+        /**
+         * Last block the wallet has seen, known early during loading, -1 if not known yet.
+         */
+        public static final String LAST_BLOCK_SEEN_HEIGHT = "last_block_seen_height";
+
+        public static final String STATE_NO_WALLET = "NO_WALLET";
+        public static final String STATE_LOADING = "LOADING";
+        public static final String STATE_READY = "READY";
+        public static final String STATE_FAILED = "FAILED";
+
+        public static Uri CONTENT_URI(String packageName) {
+            return new Uri.Builder()
+                    .scheme(ContentResolver.SCHEME_CONTENT)
+                    .authority(TransactionContract.AUTHORITY(packageName))
+                    .appendPath(TABLE_NAME)
+                    .build();
+        }
+    }
+}
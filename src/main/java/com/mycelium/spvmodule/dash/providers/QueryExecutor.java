@@ -0,0 +1,95 @@
+package com.mycelium.spvmodule.dash.providers;
+
+import android.text.format.DateUtils;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * Runs the wallet-bound part of provider queries on a small, bounded pool.
+ * <p>
+ * At most {@link #THREADS} queries touch the wallet at the same time, so a burst of host queries can't
+ * pile up on the wallet lock in front of block processing. Identical queries that arrive while one is
+ * in flight wait for and share its result, and a caller gives up after {@link #TIMEOUT_MS}.
+ */
+class QueryExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private static final int THREADS = 2;
+    private static final int MAX_QUEUED = 32;
+    private static final long TIMEOUT_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ContextPropagatingThreadFactory("provider query"));
+
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<>();
+
+    QueryExecutor() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param key identifies the query, calls with equal keys share one computation
+     * @return the result of the task, or null if it timed out or could not be scheduled
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(final String key, final Callable<T> task) {
+        final FutureTask<T> created = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                propagate(Constants.CONTEXT);
+                return task.call();
+            }
+        }) {
+            @Override
+            protected void done() {
+                inFlight.remove(key, this);
+            }
+        };
+        FutureTask<T> future = (FutureTask<T>) inFlight.putIfAbsent(key, created);
+        if (future == null) {
+            future = created;
+            try {
+                executor.execute(created);
+            } catch (RejectedExecutionException x) {
+                inFlight.remove(key, created);
+                log.warn("Too many queries in flight, rejecting {}", key);
+                return null;
+            }
+        }
+
+        try {
+            return future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException x) {
+            log.warn("Query {} timed out after {} ms", key, TIMEOUT_MS);
+            return null;
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -2,47 +2,58 @@ package com.mycelium.spvmodule.dash.providers;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
 
-import com.google.common.base.Optional;
 import com.mycelium.modularizationtools.CommunicationManager;
 import com.mycelium.spvmodule.TransactionFee;
 import com.mycelium.spvmodule.dash.BuildConfig;
 import com.mycelium.spvmodule.dash.Constants;
+import com.mycelium.spvmodule.dash.StartupPipeline;
 import com.mycelium.spvmodule.dash.WalletManager;
 import com.mycelium.spvmodule.dash.providers.data.AccountBalanceCursor;
+import com.mycelium.spvmodule.dash.providers.data.AccountBalanceProjection;
+import com.mycelium.spvmodule.dash.providers.data.PaymentUriCursor;
+import com.mycelium.spvmodule.dash.providers.data.ReceiveAddressPool;
+import com.mycelium.spvmodule.dash.providers.data.SendAmountEstimator;
 import com.mycelium.spvmodule.dash.providers.data.TransactionDetailsCursor;
+import com.mycelium.spvmodule.dash.providers.data.TransactionDetailsItemsCursor;
+import com.mycelium.spvmodule.dash.providers.data.TransactionSummaryIndex;
 import com.mycelium.spvmodule.dash.providers.data.TransactionsSummaryCursor;
+import com.mycelium.spvmodule.dash.providers.data.WalletReadModel;
+import com.mycelium.spvmodule.dash.providers.data.WalletSnapshot;
+import com.mycelium.spvmodule.dash.providers.data.WalletStateCursor;
 import com.mycelium.spvmodule.dash.providers.data.model.TransactionDetails;
-import com.mycelium.spvmodule.dash.providers.data.model.TransactionSummary;
+import com.mycelium.spvmodule.dash.util.AddressCache;
+import com.mycelium.spvmodule.dash.util.AddressValidator;
+import com.mycelium.spvmodule.dash.util.PaymentUriParser;
 import com.mycelium.spvmodule.providers.TransactionContract;
 import com.mycelium.spvmodule.providers.data.CalculateMaxSpendableCursor;
 import com.mycelium.spvmodule.providers.data.CheckSendAmountCursor;
 import com.mycelium.spvmodule.providers.data.CurrentReceiveAddressCursor;
 import com.mycelium.spvmodule.providers.data.ValidateAddressCursor;
-import com.mycelium.spvmodule.providers.data.ValidateQrCodeCursor;
 
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.InsufficientMoneyException;
 import org.bitcoinj.core.Sha256Hash;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.TransactionInput;
-import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.wallet.SendRequest;
 import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import static org.bitcoinj.core.Context.propagate;
 
@@ -50,7 +61,16 @@ public class TransactionContentProvider extends ContentProvider {
 
     private static final Logger log = LoggerFactory.getLogger(TransactionContentProvider.class);
 
-    private CommunicationManager communicationManager;
+    private static final TransactionFee DEFAULT_FEE = TransactionFee.NORMAL;
+
+    /**
+     * How long a query that needs the wallet waits for it to be loaded on startup.
+     */
+    private static final long WALLET_LOAD_TIMEOUT_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+
+    private VerifiedCallers verifiedCallers;
+    private final QueryExecutor queryExecutor = new QueryExecutor();
+    private final PaymentUriParser paymentUriParser = new PaymentUriParser(AddressValidator.getInstance());
 
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -66,6 +86,8 @@ public class TransactionContentProvider extends ContentProvider {
     private static final int CALCULATE_MAX_SPENDABLE_CODE_ID = 10;
     private static final int CHECK_SEND_AMOUNT_ID = 11;
     private static final int VALIDATE_ADDRESS_ID = 12;
+    private static final int TRANSACTION_DETAILS_ITEMS = 13;
+    private static final int WALLET_STATE_LIST = 14;
 
     static {
         String auth = TransactionContract.AUTHORITY(BuildConfig.APPLICATION_ID);
@@ -81,6 +103,9 @@ public class TransactionContentProvider extends ContentProvider {
         URI_MATCHER.addURI(auth, TransactionContract.CalculateMaxSpendable.TABLE_NAME, CALCULATE_MAX_SPENDABLE_CODE_ID);
         URI_MATCHER.addURI(auth, TransactionContract.CheckSendAmount.TABLE_NAME, CHECK_SEND_AMOUNT_ID);
         URI_MATCHER.addURI(auth, TransactionContract.ValidateAddress.TABLE_NAME, VALIDATE_ADDRESS_ID);
+        URI_MATCHER.addURI(auth, TransactionContract.TransactionDetails.TABLE_NAME + "/*/"
+                + DashTransactionContract.TransactionDetailsItem.PATH_ITEMS, TRANSACTION_DETAILS_ITEMS);
+        URI_MATCHER.addURI(auth, DashTransactionContract.WalletState.TABLE_NAME, WALLET_STATE_LIST);
     }
 
     private String getTableFromMatch(int match) {
@@ -90,7 +115,8 @@ public class TransactionContentProvider extends ContentProvider {
                 return TransactionContract.TransactionSummary.TABLE_NAME;
             }
             case TRANSACTION_DETAILS_LIST:
-            case TRANSACTION_DETAILS_ID: {
+            case TRANSACTION_DETAILS_ID:
+            case TRANSACTION_DETAILS_ITEMS: {
                 return TransactionContract.TransactionDetails.TABLE_NAME;
             }
             case ACCOUNT_BALANCE_LIST:
@@ -113,15 +139,22 @@ public class TransactionContentProvider extends ContentProvider {
             case VALIDATE_ADDRESS_ID: {
                 return TransactionContract.ValidateAddress.TABLE_NAME;
             }
+            case WALLET_STATE_LIST: {
+                return DashTransactionContract.WalletState.TABLE_NAME;
+            }
             default: {
                 throw new IllegalArgumentException("Unknown match " + match);
             }
         }
     }
 
+    private String getTableFromMatchOrNull(int match) {
+        return match != UriMatcher.NO_MATCH ? getTableFromMatch(match) : null;
+    }
+
     @Override
     public boolean onCreate() {
-        communicationManager = CommunicationManager.getInstance(getContext());
+        verifiedCallers = new VerifiedCallers(getContext(), CommunicationManager.getInstance(getContext()));
         return true;
     }
 
@@ -137,36 +170,86 @@ public class TransactionContentProvider extends ContentProvider {
         }
 
         WalletManager walletManager = WalletManager.getInstance();
+        int match = URI_MATCHER.match(uri);
+        String queryKey = getTableFromMatchOrNull(match) + '|' + uri + '|' + selection + '|' + Arrays.toString(selectionArgs);
+        switch (match) {
+            case WALLET_STATE_LIST: {
+                return handleWalletState(walletManager);
+            }
+            case VALIDATE_QR_CODE_ID: {
+                // pure parsing, needs neither the wallet nor any startup stage
+                return validateQrCode(selection, selectionArgs);
+            }
+            case VALIDATE_ADDRESS_ID: {
+                return validateAddress(selection, selectionArgs);
+            }
+            case ACCOUNT_BALANCE_LIST:
+            case ACCOUNT_BALANCE_ID: {
+                // answered from the cache while loading
+                break;
+            }
+            default: {
+                awaitWalletLoad(walletManager);
+            }
+        }
+        if (walletManager.getLoadState() == WalletManager.LoadState.LOADING) {
+            // until the wallet files are read only the balances cached on the last run are known
+            switch (match) {
+                case ACCOUNT_BALANCE_LIST: {
+                    return handleAccountBalance(walletManager, walletManager.getKnownAccountIndices(), queryKey);
+                }
+                case ACCOUNT_BALANCE_ID: {
+                    return handleAccountBalance(walletManager, Collections.singletonList(getAccountIndex(uri, match)), queryKey);
+                }
+                default: {
+                    return null;
+                }
+            }
+        }
         if (walletManager.isWalletReady()) {
-            int accountIndex = 0;
-            int match = URI_MATCHER.match(uri);
-            Wallet wallet = walletManager.getWallet();
+            switch (match) {
+                case ACCOUNT_BALANCE_LIST: {
+                    return handleAccountBalance(walletManager, walletManager.getAccountIndices(), queryKey);
+                }
+                case CURRENT_RECEIVE_ADDRESS_LIST: {
+                    return currentReceiveAddress(walletManager, walletManager.getAccountIndices(), queryKey);
+                }
+                default: {
+                    // one account
+                }
+            }
+
+            int accountIndex = getAccountIndex(uri, match);
+            Wallet wallet = walletManager.getWallet(accountIndex);
+            WalletReadModel readModel = walletManager.getReadModel(accountIndex);
+            if (wallet == null || readModel == null) {
+                log.warn("query for unknown account {}, uri = {}", accountIndex, uri);
+                return null;
+            }
             switch (match) {
                 case TRANSACTION_SUMMARY_LIST: {
-                    return handleTransactionSummaryList(wallet);
+                    return handleTransactionSummaryList(readModel, uri, queryKey);
+                }
+                case TRANSACTION_DETAILS_LIST: {
+                    return handleTransactionDetailsBatch(readModel, selection, selectionArgs, queryKey);
                 }
                 case TRANSACTION_DETAILS_ID: {
-                    return handleTransactionDetails(wallet, uri);
+                    return handleTransactionDetails(readModel, uri, queryKey);
                 }
-                case ACCOUNT_BALANCE_LIST:
-                case ACCOUNT_BALANCE_ID: {
-                    return handleAccountBalance(wallet, accountIndex);
+                case TRANSACTION_DETAILS_ITEMS: {
+                    return handleTransactionDetailsItems(readModel, uri, queryKey);
                 }
-                case CURRENT_RECEIVE_ADDRESS_ID:
-                case CURRENT_RECEIVE_ADDRESS_LIST: {
-                    return currentReceiveAddress(wallet, accountIndex);
+                case ACCOUNT_BALANCE_ID: {
+                    return handleAccountBalance(walletManager, Collections.singletonList(accountIndex), queryKey);
                 }
-                case VALIDATE_QR_CODE_ID: {
-                    return validateQrCode(selection, selectionArgs);
+                case CURRENT_RECEIVE_ADDRESS_ID: {
+                    return currentReceiveAddress(walletManager, Collections.singletonList(accountIndex), queryKey);
                 }
                 case CALCULATE_MAX_SPENDABLE_CODE_ID: {
-                    return calculateMaxSpendable(wallet, selection, selectionArgs);
+                    return calculateMaxSpendable(readModel, selection, selectionArgs, queryKey);
                 }
                 case CHECK_SEND_AMOUNT_ID: {
-                    return checkSendAmount(wallet, selection, selectionArgs);
-                }
-                case VALIDATE_ADDRESS_ID: {
-                    return validateAddress(selection, selectionArgs);
+                    return checkSendAmount(wallet, readModel, selection, selectionArgs, queryKey);
                 }
                 default: {
                     // Do nothing.
@@ -176,15 +259,188 @@ public class TransactionContentProvider extends ContentProvider {
         return null;
     }
 
-    private CheckSendAmountCursor checkSendAmount(Wallet wallet, String selection, String[] selectionArgs) {
+    /**
+     * Lets a call that arrives during startup wait a bit for the wallet stage instead of failing right away.
+     */
+    private static void awaitWalletLoad(WalletManager walletManager) {
+        if (walletManager.getLoadState() == WalletManager.LoadState.LOADING
+                && !StartupPipeline.getInstance().awaitStage(StartupPipeline.Stage.WALLET, WALLET_LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            log.warn("Wallet not loaded after {}ms", WALLET_LOAD_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * @return the account of a single account query, taken from the {@code _ID} of the per account tables and
+     * from {@link DashTransactionContract#PARAM_ACCOUNT_INDEX} elsewhere, or -1 if it is not a number
+     */
+    private static int getAccountIndex(Uri uri, int match) {
+        String accountIndex;
+        switch (match) {
+            case ACCOUNT_BALANCE_ID:
+            case CURRENT_RECEIVE_ADDRESS_ID: {
+                accountIndex = uri.getLastPathSegment();
+                break;
+            }
+            default: {
+                accountIndex = uri.getQueryParameter(DashTransactionContract.PARAM_ACCOUNT_INDEX);
+            }
+        }
+        if (accountIndex == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(accountIndex);
+        } catch (NumberFormatException x) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        checkSignature();
+        propagate(Constants.CONTEXT);
+
+        Bundle result = new Bundle();
+        switch (method) {
+            case DashTransactionContract.Call.METHOD_VALIDATE_ADDRESS: {
+                result.putBoolean(TransactionContract.ValidateAddress.IS_VALID, arg != null && isValidAddress(arg));
+                return result;
+            }
+            case DashTransactionContract.Call.METHOD_VALIDATE_QR_CODE: {
+                PaymentUriParser.PaymentUri paymentUri = arg != null ? parseQrCode(arg) : null;
+                result.putBoolean(TransactionContract.ValidateQrCode.IS_VALID, paymentUri != null);
+                if (paymentUri != null) {
+                    result.putString(DashTransactionContract.ValidateQrCode.ADDRESS, paymentUri.address);
+                    if (paymentUri.amount >= 0) {
+                        result.putLong(DashTransactionContract.ValidateQrCode.AMOUNT, paymentUri.amount);
+                    }
+                    result.putString(DashTransactionContract.ValidateQrCode.LABEL, paymentUri.label);
+                    result.putString(DashTransactionContract.ValidateQrCode.MESSAGE, paymentUri.message);
+                    result.putBoolean(DashTransactionContract.ValidateQrCode.IS_INSTANT_SEND, paymentUri.instantSend);
+                    result.putString(DashTransactionContract.ValidateQrCode.PAYMENT_REQUEST_URL, paymentUri.paymentRequestUrl);
+                }
+                return result;
+            }
+            default: {
+                // the rest needs the wallet
+            }
+        }
+
+        if (!WalletManager.isInitialized()) {
+            return null;
+        }
+        int accountIndex = extras != null ? extras.getInt(DashTransactionContract.Call.EXTRA_ACCOUNT_INDEX, 0) : 0;
+        final WalletManager walletManager = WalletManager.getInstance();
+        if (method.equals(DashTransactionContract.Call.METHOD_GET_WALLET_STATE)) {
+            result.putString(DashTransactionContract.WalletState.STATE, walletManager.getLoadState().name());
+            result.putInt(DashTransactionContract.WalletState.LAST_BLOCK_SEEN_HEIGHT, walletManager.getLastSeenBlockHeight(accountIndex));
+            return result;
+        }
+        if (!method.equals(DashTransactionContract.Call.METHOD_GET_ACCOUNT_BALANCE)) {
+            awaitWalletLoad(walletManager);
+        }
+        if (walletManager.getLoadState() == WalletManager.LoadState.LOADING
+                && method.equals(DashTransactionContract.Call.METHOD_GET_ACCOUNT_BALANCE)) {
+            AccountBalanceProjection.Balance balance = getBalance(walletManager, accountIndex);
+            if (balance == null) {
+                return null;
+            }
+            result.putLong(TransactionContract.AccountBalance.CONFIRMED, balance.confirmed);
+            result.putLong(TransactionContract.AccountBalance.SENDING, balance.sending);
+            result.putLong(TransactionContract.AccountBalance.RECEIVING, balance.receiving);
+            return result;
+        }
+        if (!walletManager.isWalletReady()) {
+            return null;
+        }
+        final Wallet wallet = walletManager.getWallet(accountIndex);
+        final WalletReadModel readModel = walletManager.getReadModel(accountIndex);
+        if (wallet == null || readModel == null) {
+            log.warn("call for unknown account {}, method = {}", accountIndex, method);
+            return null;
+        }
+        String callKey = "call|" + method + '|' + accountIndex;
+        switch (method) {
+            case DashTransactionContract.Call.METHOD_GET_ACCOUNT_BALANCE: {
+                AccountBalanceProjection.Balance balance = queryExecutor.execute(callKey, new Callable<AccountBalanceProjection.Balance>() {
+                    @Override
+                    public AccountBalanceProjection.Balance call() {
+                        return readModel.getSnapshot().balance;
+                    }
+                });
+                if (balance == null) {
+                    return null;
+                }
+                result.putLong(TransactionContract.AccountBalance.CONFIRMED, balance.confirmed);
+                result.putLong(TransactionContract.AccountBalance.SENDING, balance.sending);
+                result.putLong(TransactionContract.AccountBalance.RECEIVING, balance.receiving);
+                return result;
+            }
+            case DashTransactionContract.Call.METHOD_CALCULATE_MAX_SPENDABLE: {
+                if (extras == null) {
+                    return null;
+                }
+                final TransactionFee txFee = parseFee(extras.getString(TransactionContract.CalculateMaxSpendable.TX_FEE));
+                Coin maxSpendableAmount = queryExecutor.execute(callKey + '|' + txFee, new Callable<Coin>() {
+                    @Override
+                    public Coin call() {
+                        return calculateMaxSpendableAmount(readModel.getSnapshot(), txFee);
+                    }
+                });
+                if (maxSpendableAmount == null) {
+                    return null;
+                }
+                result.putLong(TransactionContract.CalculateMaxSpendable.MAX_SPENDABLE, maxSpendableAmount.getValue());
+                return result;
+            }
+            case DashTransactionContract.Call.METHOD_CHECK_SEND_AMOUNT: {
+                if (extras == null) {
+                    return null;
+                }
+                final TransactionFee txFee = parseFee(extras.getString(TransactionContract.CheckSendAmount.TX_FEE));
+                final long amountToSend = extras.getLong(TransactionContract.CheckSendAmount.AMOUNT_TO_SEND);
+                String checkSendAmountResult = queryExecutor.execute(callKey + '|' + txFee + '|' + amountToSend, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return checkSendAmount(wallet, readModel.getSnapshot(), txFee, amountToSend);
+                    }
+                });
+                if (checkSendAmountResult == null) {
+                    return null;
+                }
+                result.putString(TransactionContract.CheckSendAmount.RESULT, checkSendAmountResult);
+                return result;
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    private CheckSendAmountCursor checkSendAmount(final Wallet wallet, final WalletReadModel readModel, String selection, String[] selectionArgs, String queryKey) {
         CheckSendAmountCursor cursor = new CheckSendAmountCursor();
         if (TransactionContract.CheckSendAmount.SELECTION_COMPLETE.equals(selection)) {
             String minerFeeStr = selectionArgs[1];
             String txFeeFactorStr = selectionArgs[2];
-            TransactionFee txFee = TransactionFee.valueOf(minerFeeStr);
+            final TransactionFee txFee = parseFee(minerFeeStr);
             String amountToSendStr = selectionArgs[3];
-            long amountToSend = Long.parseLong(amountToSendStr);
-            String checkSendAmountResult = checkSendAmount(wallet, txFee, amountToSend);
+            final long amountToSend;
+            try {
+                amountToSend = Long.parseLong(amountToSendStr);
+            } catch (NumberFormatException x) {
+                log.warn("checkSendAmount, malformed amount: {}", amountToSendStr);
+                return null;
+            }
+            String checkSendAmountResult = queryExecutor.execute(queryKey, new Callable<String>() {
+                @Override
+                public String call() {
+                    return checkSendAmount(wallet, readModel.getSnapshot(), txFee, amountToSend);
+                }
+            });
+            if (checkSendAmountResult == null) {
+                return null;
+            }
 
             List<Object> columnValues = new ArrayList<>();
             columnValues.add(txFee);                    //TransactionContract.CheckSendAmount.TX_FEE
@@ -197,9 +453,21 @@ public class TransactionContentProvider extends ContentProvider {
         return null;
     }
 
-    private String checkSendAmount(Wallet wallet, TransactionFee minerFee, long amountToSend) {
+    private String checkSendAmount(Wallet wallet, WalletSnapshot snapshot, TransactionFee minerFee, long amountToSend) {
         log.info("checkSendAmount, minerFee = {}, amountToSend = {}", minerFee, amountToSend);
-        Address address = getNullAddress(wallet.getNetworkParameters());
+        switch (SendAmountEstimator.estimate(snapshot.spendableOutputs, amountToSend, Constants.minerFeeValue(minerFee))) {
+            case OK: {
+                return TransactionContract.CheckSendAmount.Result.RESULT_OK.name();
+            }
+            case NOT_ENOUGH_FUNDS: {
+                return TransactionContract.CheckSendAmount.Result.RESULT_NOT_ENOUGH_FUNDS.name();
+            }
+            default: {
+                // borderline, only a real coin selection on the live wallet can tell
+            }
+        }
+
+        Address address = AddressCache.getInstance().getNullAddress().address;
         Coin amount = Coin.valueOf(amountToSend);
         SendRequest sendRequest = SendRequest.to(address, amount);
         sendRequest.feePerKb = Constants.minerFeeValue(minerFee);
@@ -214,19 +482,21 @@ public class TransactionContentProvider extends ContentProvider {
         }
     }
 
-    private Address getNullAddress(org.bitcoinj.core.NetworkParameters network) {
-        int numAddressBytes = 20;
-        byte[] bytes = new byte[numAddressBytes];
-        return new Address(network, bytes);
-    }
-
-    private CalculateMaxSpendableCursor calculateMaxSpendable(Wallet wallet, String selection, String[] selectionArgs) {
+    private CalculateMaxSpendableCursor calculateMaxSpendable(final WalletReadModel readModel, String selection, String[] selectionArgs, String queryKey) {
         CalculateMaxSpendableCursor cursor = new CalculateMaxSpendableCursor();
         if (selection.equals(TransactionContract.CalculateMaxSpendable.SELECTION_COMPLETE)) {
             String minerFeeStr = selectionArgs[1];
-            String txFeeFactor = selectionArgs[1];
-            TransactionFee txFee = TransactionFee.valueOf(minerFeeStr);
-            Coin maxSpendableAmount = calculateMaxSpendableAmount(wallet, txFee);
+            String txFeeFactor = selectionArgs[2];
+            final TransactionFee txFee = parseFee(minerFeeStr);
+            Coin maxSpendableAmount = queryExecutor.execute(queryKey, new Callable<Coin>() {
+                @Override
+                public Coin call() {
+                    return calculateMaxSpendableAmount(readModel.getSnapshot(), txFee);
+                }
+            });
+            if (maxSpendableAmount == null) {
+                return null;
+            }
 
             List<Object> columnValues = new ArrayList<>();
             columnValues.add(txFee);
@@ -238,40 +508,40 @@ public class TransactionContentProvider extends ContentProvider {
         return null;
     }
 
-    private Coin calculateMaxSpendableAmount(Wallet wallet, TransactionFee minerFee) {
+    private Coin calculateMaxSpendableAmount(WalletSnapshot snapshot, TransactionFee minerFee) {
         log.info("calculateMaxSpendableAmount, minerFee = {}", minerFee);
-        Coin txFee = Constants.minerFeeValue(minerFee);
-        Coin balance = wallet.getBalance();
-        return balance.subtract(txFee);
+        return snapshot.getMaxSpendable(minerFee);
     }
 
     private Cursor validateQrCode(String selection, String[] selectionArgs) {
-        ValidateQrCodeCursor cursor = new ValidateQrCodeCursor();
+        PaymentUriCursor cursor = new PaymentUriCursor();
         if (selection.endsWith(TransactionContract.ValidateQrCode.SELECTION_QR_CODE)) {
             String qrCode = selectionArgs[1];
-            boolean isValid = isValidQrCode(qrCode);
+            PaymentUriParser.PaymentUri paymentUri = parseQrCode(qrCode);
 
             List<Object> columnValues = new ArrayList<>();
             columnValues.add(qrCode);                           //TransactionContract.ValidateQrCode.QR_CODE
-            columnValues.add(isValid ? 1 : 0);                  //TransactionContract.ValidateQrCode.IS_VALID
+            columnValues.add(paymentUri != null ? 1 : 0);       //TransactionContract.ValidateQrCode.IS_VALID
+            if (paymentUri != null) {
+                columnValues.add(paymentUri.address);                                   //DashTransactionContract.ValidateQrCode.ADDRESS
+                columnValues.add(paymentUri.amount >= 0 ? paymentUri.amount : null);    //DashTransactionContract.ValidateQrCode.AMOUNT
+                columnValues.add(paymentUri.label);                                     //DashTransactionContract.ValidateQrCode.LABEL
+                columnValues.add(paymentUri.message);                                   //DashTransactionContract.ValidateQrCode.MESSAGE
+                columnValues.add(paymentUri.instantSend ? 1 : 0);                       //DashTransactionContract.ValidateQrCode.IS_INSTANT_SEND
+                columnValues.add(paymentUri.paymentRequestUrl);                         //DashTransactionContract.ValidateQrCode.PAYMENT_REQUEST_URL
+            } else {
+                columnValues.addAll(Collections.nCopies(6, null));
+            }
             cursor.addRow(columnValues);
             return cursor;
         }
         return null;
     }
 
-    private boolean isValidQrCode(String qrCode) {
-        log.info("isValidQrCode, qrCode = {}", qrCode);
-        try {
-            if (qrCode.startsWith("dash:")) {
-                String rawAddress = qrCode.replaceFirst("dash:", "");
-                org.bitcoinj.core.Address.fromBase58(Constants.NETWORK_PARAMETERS, rawAddress);
-                return true;
-            }
-        } catch (Exception ex) {
-            // ignore
-        }
-        return false;
+    @Nullable
+    private PaymentUriParser.PaymentUri parseQrCode(String qrCode) {
+        log.debug("parseQrCode, qrCode = {}", qrCode);
+        return paymentUriParser.parse(qrCode);
     }
 
     private Cursor validateAddress(String selection, String[] selectionArgs) {
@@ -290,274 +560,230 @@ public class TransactionContentProvider extends ContentProvider {
     }
 
     private boolean isValidAddress(String address) {
-        log.info("isValidAddress, address = {}", address);
-        try {
-            org.bitcoinj.core.Address.fromBase58(Constants.NETWORK_PARAMETERS, address);
-            return true;
-        } catch (Exception ex) {
-            // ignore
-        }
-        return false;
+        log.debug("isValidAddress, address = {}", address);
+        return AddressValidator.getInstance().isValidAddress(address);
     }
 
-    private Cursor currentReceiveAddress(Wallet wallet, int accountIndex) {
+    private Cursor currentReceiveAddress(final WalletManager walletManager, final List<Integer> accountIndices, String queryKey) {
         CurrentReceiveAddressCursor cursor = new CurrentReceiveAddressCursor();
 
-        Address currentReceiveAddress = getAccountCurrentReceiveAddress(wallet);
-        String qrAddressString = Constants.QR_ADDRESS_PREFIX + currentReceiveAddress;
+        List<ReceiveAddressPool.Entry> currentReceiveAddresses = queryExecutor.execute(queryKey, new Callable<List<ReceiveAddressPool.Entry>>() {
+            @Override
+            public List<ReceiveAddressPool.Entry> call() {
+                log.debug("getAccountCurrentReceiveAddress, accounts = {}", accountIndices);
+                List<ReceiveAddressPool.Entry> entries = new ArrayList<>();
+                for (int accountIndex : accountIndices) {
+                    WalletReadModel readModel = walletManager.getReadModel(accountIndex);
+                    entries.add(readModel != null ? readModel.getSnapshot().currentReceiveAddress : null);
+                }
+                return entries;
+            }
+        });
+        if (currentReceiveAddresses == null) {
+            return null;
+        }
 
-        List<Object> columnValues = new ArrayList<>();
-        columnValues.add(accountIndex);             //TransactionContract.CurrentReceiveAddress._ID
-        columnValues.add(currentReceiveAddress);    //TransactionContract.CurrentReceiveAddress.ADDRESS
-        columnValues.add(qrAddressString);          //TransactionContract.CurrentReceiveAddress.ADDRESS_QR
-        cursor.addRow(columnValues);
+        for (int i = 0; i < accountIndices.size(); i++) {
+            ReceiveAddressPool.Entry currentReceiveAddress = currentReceiveAddresses.get(i);
+            if (currentReceiveAddress == null) {
+                continue;
+            }
+            List<Object> columnValues = new ArrayList<>();
+            columnValues.add(accountIndices.get(i));                //TransactionContract.CurrentReceiveAddress._ID
+            columnValues.add(currentReceiveAddress.address);        //TransactionContract.CurrentReceiveAddress.ADDRESS
+            columnValues.add(currentReceiveAddress.qrString);       //TransactionContract.CurrentReceiveAddress.ADDRESS_QR
+            cursor.addRow(columnValues);
+        }
         return cursor;
     }
 
-    private Cursor handleAccountBalance(Wallet wallet, int accountIndex) {
+    private Cursor handleAccountBalance(final WalletManager walletManager, final List<Integer> accountIndices, String queryKey) {
         AccountBalanceCursor cursor = new AccountBalanceCursor();
+        List<AccountBalanceProjection.Balance> balances = queryExecutor.execute(queryKey, new Callable<List<AccountBalanceProjection.Balance>>() {
+            @Override
+            public List<AccountBalanceProjection.Balance> call() {
+                List<AccountBalanceProjection.Balance> balances = new ArrayList<>();
+                for (int accountIndex : accountIndices) {
+                    balances.add(getBalance(walletManager, accountIndex));
+                }
+                return balances;
+            }
+        });
+        if (balances == null) {
+            return null;
+        }
 
-        List<Object> columnValues = new ArrayList<>();
-        columnValues.add(accountIndex);                   //TransactionContract.AccountBalance._ID
-        columnValues.add(getAccountBalance(wallet));      //TransactionContract.AccountBalance.CONFIRMED
-        columnValues.add(getAccountSending(wallet));      //TransactionContract.AccountBalance.SENDING
-        columnValues.add(getAccountReceiving(wallet));    //TransactionContract.AccountBalance.RECEIVING
-        cursor.addRow(columnValues);
+        for (int i = 0; i < accountIndices.size(); i++) {
+            AccountBalanceProjection.Balance balance = balances.get(i);
+            if (balance == null) {
+                continue;
+            }
+            List<Object> columnValues = new ArrayList<>();
+            columnValues.add(accountIndices.get(i));          //TransactionContract.AccountBalance._ID
+            columnValues.add(balance.confirmed);              //TransactionContract.AccountBalance.CONFIRMED
+            columnValues.add(balance.sending);                //TransactionContract.AccountBalance.SENDING
+            columnValues.add(balance.receiving);              //TransactionContract.AccountBalance.RECEIVING
+            cursor.addRow(columnValues);
+        }
         return cursor;
     }
 
-    private long getAccountBalance(Wallet wallet) {
-        log.info("getAccountBalance");
-        return wallet.getBalance(Wallet.BalanceType.ESTIMATED).getValue();
+    /**
+     * @return the balance of a loaded account, or while loading the one cached on the last run, or null
+     */
+    private static AccountBalanceProjection.Balance getBalance(WalletManager walletManager, int accountIndex) {
+        WalletReadModel readModel = walletManager.getReadModel(accountIndex);
+        if (readModel != null) {
+            return readModel.getSnapshot().balance;
+        }
+        if (walletManager.getLoadState() == WalletManager.LoadState.LOADING) {
+            return walletManager.getCachedBalance(accountIndex);
+        }
+        return null;
     }
 
-    private long getAccountSending(Wallet wallet) {
-        log.info("getAccountSending");
-        long sending = 0L;
-        for (Transaction pendingTransaction : wallet.getPendingTransactions()) {
-            Coin received = pendingTransaction.getValueSentToMe(wallet);
-            Coin netSent = pendingTransaction.getValueSentFromMe(wallet).minus(received);
-            sending += netSent.isPositive() ? netSent.value : 0;
+    private Cursor handleWalletState(WalletManager walletManager) {
+        WalletStateCursor cursor = new WalletStateCursor();
+        String state = walletManager.getLoadState().name();
+        for (int accountIndex : walletManager.getKnownAccountIndices()) {
+            List<Object> columnValues = new ArrayList<>();
+            int lastBlockSeenHeight = walletManager.getLastSeenBlockHeight(accountIndex);
+            columnValues.add(accountIndex);             //DashTransactionContract.WalletState._ID
+            columnValues.add(state);                    //DashTransactionContract.WalletState.STATE
+            columnValues.add(lastBlockSeenHeight);      //DashTransactionContract.WalletState.LAST_BLOCK_SEEN_HEIGHT
+            cursor.addRow(columnValues);
         }
-        return sending;
+        return cursor;
     }
 
-    private long getAccountReceiving(Wallet wallet) {
-        log.info("getAccountReceiving");
-        long receiving = 0L;
-        for (Transaction pendingTransaction : wallet.getPendingTransactions()) {
-            Coin sent = pendingTransaction.getValueSentFromMe(wallet);
-            Coin netReceived = pendingTransaction.getValueSentToMe(wallet).minus(sent);
-            receiving += netReceived.isPositive() ? netReceived.value : 0;
+    private TransactionsSummaryCursor handleTransactionSummaryList(final WalletReadModel readModel, Uri uri, String queryKey) {
+        log.info("query, TRANSACTION_SUMMARY_LIST, uri = {}", uri);
+        String limitStr = uri.getQueryParameter(DashTransactionContract.TransactionSummary.PARAM_LIMIT);
+        String beforeTimeStr = uri.getQueryParameter(DashTransactionContract.TransactionSummary.PARAM_BEFORE_TIME);
+        String beforeTxidStr = uri.getQueryParameter(DashTransactionContract.TransactionSummary.PARAM_BEFORE_TXID);
+        final int limit;
+        final Long beforeTime;
+        try {
+            limit = limitStr != null ? Integer.parseInt(limitStr) : -1;
+            beforeTime = beforeTimeStr != null ? Long.parseLong(beforeTimeStr) : null;
+        } catch (NumberFormatException x) {
+            log.warn("query, TRANSACTION_SUMMARY_LIST, malformed paging parameters: {}", uri);
+            return null;
+        }
+        final Sha256Hash beforeTxid = beforeTxidStr != null ? parseTxid(beforeTxidStr) : null;
+        if (beforeTxidStr != null && beforeTxid == null) {
+            return null;
         }
-        return receiving;
-    }
 
-    private Address getAccountCurrentReceiveAddress(Wallet wallet) {
-        log.info("getAccountCurrentReceiveAddress");
-        Address currentReceiveAddress = wallet.currentReceiveAddress();
-        if (currentReceiveAddress != null) {
-            return currentReceiveAddress;
-        } else {
-            return wallet.freshReceiveAddress();
+        TransactionSummaryIndex.Page page = queryExecutor.execute(queryKey, new Callable<TransactionSummaryIndex.Page>() {
+            @Override
+            public TransactionSummaryIndex.Page call() {
+                return readModel.getSnapshot().getTransactionSummaryPage(beforeTime, beforeTxid, limit);
+            }
+        });
+        if (page == null) {
+            return null;
         }
+        return new TransactionsSummaryCursor(page.rows, page.hasMore);
     }
 
-    public static void notifyWalletUpdate(Context context) {
-        TransactionContentProvider.notifyCurrentReceiveAddress(context);
-        TransactionContentProvider.notifyAccountBalance(context);
-    }
+    private Cursor handleTransactionDetails(final WalletReadModel readModel, Uri uri, String queryKey) {
+        log.info("getTransactionDetails, uri = " + uri);
 
-    public static void notifyCurrentReceiveAddress(Context context) {
-        String packageName = context.getPackageName();
-        Uri contentUri = TransactionContract.CurrentReceiveAddress.CONTENT_URI(packageName);
-        context.getContentResolver().notifyChange(contentUri, null);
+        final Sha256Hash hash = parseTxid(uri.getLastPathSegment());
+        if (hash == null) {
+            return null;
+        }
+        TransactionDetails transactionDetails = queryExecutor.execute(queryKey, new Callable<TransactionDetails>() {
+            @Override
+            public TransactionDetails call() {
+                return readModel.getSnapshot().getTransactionDetails(hash);
+            }
+        });
+        if (transactionDetails == null) {
+            return null;
+        }
+        return new TransactionDetailsCursor(Collections.singletonList(transactionDetails));
     }
 
-    public static void notifyAccountBalance(Context context) {
-        String packageName = context.getPackageName();
-        Uri contentUri = TransactionContract.AccountBalance.CONTENT_URI(packageName);
-        context.getContentResolver().notifyChange(contentUri, null);
-    }
+    private Cursor handleTransactionDetailsBatch(final WalletReadModel readModel, String selection,
+                                                 final String[] selectionArgs, String queryKey) {
+        if (!DashTransactionContract.TransactionDetails.SELECTION_TXIDS.equals(selection) || selectionArgs == null) {
+            return null;
+        }
+        log.info("getTransactionDetails, batch of {}", selectionArgs.length);
 
-    private TransactionsSummaryCursor handleTransactionSummaryList(Wallet wallet) {
-        log.info("query, TRANSACTION_SUMMARY_LIST");
-        List<TransactionSummary> transactionsSummary = getTransactionsSummary(wallet);
-        TransactionsSummaryCursor cursor = new TransactionsSummaryCursor(transactionsSummary.size());
-        for (TransactionSummary rowItem : transactionsSummary) {
-            List<Object> columnValues = new ArrayList<>();
-            columnValues.add(rowItem.txid.toString());                              //TransactionContract.TransactionSummary._ID
-            columnValues.add(rowItem.value.toPlainString());                        //TransactionContract.TransactionSummary.VALUE
-            columnValues.add(rowItem.isIncoming ? 1 : 0);                           //TransactionContract.TransactionSummary.IS_INCOMING
-            columnValues.add(rowItem.time);                                         //TransactionContract.TransactionSummary.TIME
-            columnValues.add(rowItem.height);                                       //TransactionContract.TransactionSummary.HEIGHT
-            columnValues.add(rowItem.confirmations);                                //TransactionContract.TransactionSummary.CONFIRMATIONS
-            columnValues.add(rowItem.isQueuedOutgoing ? 1 : 0);                     //TransactionContract.TransactionSummary.IS_QUEUED_OUTGOING
-
-            //FIXME do we need those values? (com.mycelium.wapi.model.TransactionSummary.confirmationRiskProfile [ConfirmationRiskProfileLocal])
-            columnValues.add(-1);
-            columnValues.add(null);
-            columnValues.add(null);
-
-            boolean isDestAddressPresent = rowItem.destinationAddress.isPresent();
-            columnValues.add(isDestAddressPresent ? rowItem.destinationAddress.get().toString() : null); //TransactionContract.TransactionSummary.DESTINATION_ADDRESS
-            StringBuilder addressesBuilder = new StringBuilder();
-            for (Address addr : rowItem.toAddresses) {
-                if (addressesBuilder.length() > 0) {
-                    addressesBuilder.append(",");
+        List<TransactionDetails> transactionDetails = queryExecutor.execute(queryKey, new Callable<List<TransactionDetails>>() {
+            @Override
+            public List<TransactionDetails> call() {
+                // one snapshot for the whole batch, so all rows show the same wallet state
+                WalletSnapshot snapshot = readModel.getSnapshot();
+                List<TransactionDetails> rows = new ArrayList<>(selectionArgs.length);
+                for (String hash : selectionArgs) {
+                    Sha256Hash txid = parseTxid(hash);
+                    // malformed txids are skipped like unknown ones
+                    TransactionDetails details = txid != null ? snapshot.getTransactionDetails(txid) : null;
+                    if (details != null) {
+                        rows.add(details);
+                    }
                 }
-                addressesBuilder.append(addr.toString());
+                return rows;
             }
-            columnValues.add(addressesBuilder.toString());                          //TransactionContract.TransactionSummary.TO_ADDRESSES
-            cursor.addRow(columnValues);
+        });
+        if (transactionDetails == null) {
+            return null;
         }
-        return cursor;
+        return new TransactionDetailsCursor(transactionDetails);
     }
 
-    private List<TransactionSummary> getTransactionsSummary(Wallet wallet) {
-        propagate(Constants.CONTEXT);
-        log.info("getTransactionsSummary");
-        ArrayList<TransactionSummary> transactionsSummary = new ArrayList<>();
+    private Cursor handleTransactionDetailsItems(final WalletReadModel readModel, Uri uri, String queryKey) {
+        log.info("getTransactionDetailsItems, uri = " + uri);
 
-        List<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-        Collections.sort(transactions, new Comparator<Transaction>() {
+        final Sha256Hash hash = parseTxid(uri.getPathSegments().get(1));
+        if (hash == null) {
+            return null;
+        }
+        TransactionDetails transactionDetails = queryExecutor.execute(queryKey, new Callable<TransactionDetails>() {
             @Override
-            public int compare(Transaction o1, Transaction o2) {
-                return o2.getUpdateTime().compareTo(o1.getUpdateTime());
+            public TransactionDetails call() {
+                return readModel.getSnapshot().getTransactionDetails(hash);
             }
         });
-        for (Transaction dashjTransaction : transactions) {
-
-            List<Address> toAddresses = new ArrayList<>();
-            Address destAddress = null;
-
-            for (TransactionOutput transactionOutput : dashjTransaction.getOutputs()) {
-                Address toAddress = Address.fromBase58(
-                        wallet.getNetworkParameters(),
-                        transactionOutput
-                                .getScriptPubKey()
-                                .getToAddress(wallet.getNetworkParameters())
-                                .toBase58()
-                );
-                if (!transactionOutput.isMine(wallet)) {
-                    destAddress = toAddress;
-                }
-                if (toAddress != getNullAddress(wallet.getNetworkParameters())) {
-                    toAddresses.add(toAddress);
-                }
-            }
-
-            int confirmations = dashjTransaction.getConfidence().getDepthInBlocks();
-            boolean isQueuedOutgoing = false; //FIXME Change the UI so MBW understand BitcoinJ confidence type.
-            Optional<Address> destAddressOptional;
-            if (destAddress != null) {
-                destAddressOptional = Optional.of(destAddress);
-            } else {
-                destAddressOptional = Optional.absent();
-            }
-            Coin dashjValue = dashjTransaction.getValue(wallet);
-            boolean isIncoming;
-            if (dashjValue.isPositive()) {
-                isIncoming = true;
-            } else {
-                isIncoming = false;
-                dashjValue = dashjValue.negate();
-            }
-            int height = dashjTransaction.getConfidence().getDepthInBlocks();
-            TransactionSummary transactionSummary = new TransactionSummary(
-                    dashjTransaction.getHash(),
-                    dashjValue, isIncoming,
-                    dashjTransaction.getUpdateTime().getTime() / 1000,
-                    height, confirmations,
-                    isQueuedOutgoing, destAddressOptional, toAddresses
-            );
-            transactionsSummary.add(transactionSummary);
-        }
-        return transactionsSummary;
-    }
-
-    private Cursor handleTransactionDetails(Wallet wallet, Uri uri) {
-        log.info("getTransactionDetails, uri = " + uri);
-
-        TransactionDetailsCursor cursor = new TransactionDetailsCursor();
-        String hash = uri.getLastPathSegment();
-        TransactionDetails transactionDetails = getTransactionDetails(wallet, hash);
         if (transactionDetails == null) {
             return null;
         }
+        return new TransactionDetailsItemsCursor(transactionDetails);
+    }
 
-        List<Object> columnValues = new ArrayList<>();
-        columnValues.add(transactionDetails.hash.toString());   //TransactionContract.Transaction._ID
-        columnValues.add(transactionDetails.height);            //TransactionContract.Transaction.HEIGHT
-        columnValues.add(transactionDetails.time);              //TransactionContract.Transaction.TIME
-        columnValues.add(transactionDetails.rawSize);           //TransactionContract.Transaction.RAW_SIZE
-        StringBuilder inputsBuilder = new StringBuilder();
-        for (TransactionDetails.Item input : transactionDetails.inputs) {
-            if (inputsBuilder.length() > 0) {
-                inputsBuilder.append(",");
-            }
-            inputsBuilder.append(input.value + " BTC");   //FIXME we should get rid of 'BTC' over here
-            inputsBuilder.append(input.address.toString());
+    /**
+     * @return the fee level of that name, {@link #DEFAULT_FEE} if it is missing or unknown
+     */
+    private static TransactionFee parseFee(@Nullable String name) {
+        if (name == null) {
+            return DEFAULT_FEE;
         }
-        columnValues.add(inputsBuilder.toString());             //TransactionContract.Transaction.INPUTS
-
-        StringBuilder outputsBuilder = new StringBuilder();
-        for (TransactionDetails.Item output : transactionDetails.outputs) {
-            if (outputsBuilder.length() > 0) {
-                outputsBuilder.append(",");
-            }
-            outputsBuilder.append(output.value + " BTC");   //FIXME we should get rid of 'BTC' over here
-            outputsBuilder.append(output.address.toString());
+        try {
+            return TransactionFee.valueOf(name);
+        } catch (IllegalArgumentException x) {
+            log.warn("Unknown fee level {}, using {}", name, DEFAULT_FEE);
+            return DEFAULT_FEE;
         }
-        columnValues.add(outputsBuilder.toString());             //TransactionContract.Transaction.OUTPUTS
-        cursor.addRow(columnValues);
-        return cursor;
     }
 
-    private TransactionDetails getTransactionDetails(Wallet wallet, String hashStr) {
-        Sha256Hash hash = Sha256Hash.wrap(hashStr);
-        Transaction dashjTransaction = wallet.getTransaction(hash);
-        if (dashjTransaction == null) {
+    /**
+     * @return the txid in hex, or null if it is malformed
+     */
+    @Nullable
+    private static Sha256Hash parseTxid(@Nullable String hash) {
+        if (hash == null) {
+            return null;
+        }
+        try {
+            return Sha256Hash.wrap(hash);
+        } catch (IllegalArgumentException x) {
+            log.warn("Malformed txid: {}", hash);
             return null;
         }
-
-        List<TransactionDetails.Item> inputs = new ArrayList<>();
-        for (TransactionInput input : dashjTransaction.getInputs()) {
-            TransactionOutput connectedOutput = input.getOutpoint().getConnectedOutput();
-            Coin value = input.getValue();
-
-            Address address;
-            if (connectedOutput == null) {
-                address = getNullAddress(wallet.getNetworkParameters());
-            } else {
-                address = connectedOutput.getScriptPubKey().getToAddress(wallet.getNetworkParameters());
-            }
-            TransactionDetails.Item item = new TransactionDetails.Item(
-                    address,
-                    value != null ? value.getValue() : 0L,
-                    input.isCoinBase());
-            inputs.add(item);
-        }
-
-        List<TransactionDetails.Item> outputs = new ArrayList<>();
-        for (TransactionOutput output : dashjTransaction.getOutputs()) {
-            Address address = output.getScriptPubKey().getToAddress(wallet.getNetworkParameters());
-            Coin value = output.getValue();
-            TransactionDetails.Item item = new TransactionDetails.Item(
-                    address,
-                    value != null ? value.getValue() : 0L,
-                    false);
-            outputs.add(item);
-        }
-
-        int height = dashjTransaction.getConfidence().getDepthInBlocks();
-        return new TransactionDetails(
-                hash,
-                height,
-                (int) (dashjTransaction.getUpdateTime().getTime() / 1000),
-                inputs.toArray(new TransactionDetails.Item[inputs.size()]),
-                outputs.toArray(new TransactionDetails.Item[outputs.size()]),
-                dashjTransaction.getOptimalEncodingMessageSize());
     }
 
     @Nullable
@@ -573,6 +799,12 @@ public class TransactionContentProvider extends ContentProvider {
             case TRANSACTION_DETAILS_ID: {
                 return TransactionContract.TransactionDetails.CONTENT_TYPE;
             }
+            case TRANSACTION_DETAILS_ITEMS: {
+                return DashTransactionContract.TransactionDetailsItem.CONTENT_TYPE;
+            }
+            case WALLET_STATE_LIST: {
+                return DashTransactionContract.WalletState.CONTENT_TYPE;
+            }
             case ACCOUNT_BALANCE_LIST:
             case ACCOUNT_BALANCE_ID: {
                 return TransactionContract.AccountBalance.CONTENT_TYPE;
@@ -616,6 +848,6 @@ public class TransactionContentProvider extends ContentProvider {
         if (callingPackage == null) {
             throw new IllegalStateException();
         }
-        communicationManager.checkSignature(callingPackage);
+        verifiedCallers.check(Binder.getCallingUid(), callingPackage);
     }
 }
@@ -0,0 +1,114 @@
+package com.mycelium.spvmodule.dash.providers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import com.mycelium.modularizationtools.CommunicationManager;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers callers that passed {@link CommunicationManager#checkSignature(String)}.
+ * <p>
+ * A caller is identified by its uid and package together with the digest of its signing certificates
+ * at the time it was verified. Entries of a package are dropped as soon as it is installed, replaced or
+ * removed, so the next call from it is verified again. A verification that overlapped such a change, seen
+ * by the digest before and after it or by a package broadcast arriving meanwhile, is not remembered, and
+ * neither are callers that fail verification.
+ */
+class VerifiedCallers {
+
+    private static final Logger log = LoggerFactory.getLogger(VerifiedCallers.class);
+
+    private final Context context;
+    private final CommunicationManager communicationManager;
+
+    // "uid:package" -> signature digest
+    private final ConcurrentMap<String, Sha256Hash> verified = new ConcurrentHashMap<>();
+    // bumped by every package broadcast, before entries are dropped
+    private final AtomicLong packageChanges = new AtomicLong();
+
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            packageChanges.incrementAndGet();
+            String packageName = intent.getData() != null ? intent.getData().getSchemeSpecificPart() : null;
+            if (packageName == null) {
+                verified.clear();
+                return;
+            }
+            String suffix = ':' + packageName;
+            Iterator<String> iterator = verified.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().endsWith(suffix)) {
+                    iterator.remove();
+                    log.info("Forgetting verified caller {} after {}", packageName, intent.getAction());
+                }
+            }
+        }
+    };
+
+    VerifiedCallers(Context context, CommunicationManager communicationManager) {
+        this.context = context;
+        this.communicationManager = communicationManager;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_FULLY_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageChangeReceiver, filter);
+    }
+
+    /**
+     * Throws like {@link CommunicationManager#checkSignature(String)} if the caller is not trusted.
+     */
+    void check(int callingUid, String callingPackage) {
+        String key = callingUid + ":" + callingPackage;
+        if (verified.containsKey(key)) {
+            return;
+        }
+        long changes = packageChanges.get();
+        Sha256Hash digest = signatureDigest(callingPackage);
+        communicationManager.checkSignature(callingPackage);
+        if (digest == null || !digest.equals(signatureDigest(callingPackage))) {
+            // reinstalled while it was checked, verify the next call again
+            return;
+        }
+        verified.put(key, digest);
+        if (packageChanges.get() != changes) {
+            // a broadcast may have dropped entries before this one was put
+            verified.remove(key, digest);
+            return;
+        }
+        log.info("Verified caller {}, signature {}", key, digest);
+    }
+
+    private Sha256Hash signatureDigest(String packageName) {
+        try {
+            @SuppressWarnings("deprecation")
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+            MessageDigest digest = Sha256Hash.newDigest();
+            for (Signature signature : packageInfo.signatures) {
+                digest.update(signature.toByteArray());
+            }
+            return Sha256Hash.wrap(digest.digest());
+        } catch (PackageManager.NameNotFoundException x) {
+            // uninstalled meanwhile, don't remember it
+            return null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * Confirmed, sending and receiving totals of one wallet, as reported by the ACCOUNT_BALANCE table.
+ * <p>
+ * The net value of every pending transaction is tracked as transactions come and go, and the estimated
+ * balance is only asked from the wallet once per wallet change that can affect it. Queries read the
+ * last published {@link Balance}.
+ */
+public class AccountBalanceProjection implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        WalletReorganizeEventListener, TransactionConfidenceEventListener, WalletChangeEventListener {
+
+    public static class Balance {
+        public final long confirmed;
+        public final long sending;
+        public final long receiving;
+
+        public Balance(long confirmed, long sending, long receiving) {
+            this.confirmed = confirmed;
+            this.sending = sending;
+            this.receiving = receiving;
+        }
+    }
+
+    private final Wallet wallet;
+
+    // guarded by "this"; never call into the wallet while holding it
+    private final Map<Sha256Hash, Long> pendingNetValues = new HashMap<>();
+    private boolean initialized = false;
+    private boolean confirmedDirty = true;
+    // counts the changes that dirtied the confirmed part, an estimate only counts if none came in while it was asked for
+    private long confirmedChanges = 0;
+    private long confirmed;
+
+    private volatile Balance balance;
+
+    private final Object buildLock = new Object();
+
+    public AccountBalanceProjection(Wallet wallet) {
+        this.wallet = wallet;
+    }
+
+    public void attach() {
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public void detach() {
+        wallet.removeChangeEventListener(this);
+        wallet.removeTransactionConfidenceEventListener(this);
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeCoinsSentEventListener(this);
+        wallet.removeCoinsReceivedEventListener(this);
+    }
+
+    public Balance getBalance() {
+        Balance current = balance;
+        if (current != null) {
+            return current;
+        }
+        synchronized (buildLock) {
+            boolean build;
+            synchronized (this) {
+                build = !initialized;
+            }
+            propagate(Constants.CONTEXT);
+            if (build) {
+                Map<Sha256Hash, Long> built = new HashMap<>();
+                for (Transaction pendingTransaction : wallet.getPendingTransactions()) {
+                    built.put(pendingTransaction.getHash(), netValue(pendingTransaction));
+                }
+                synchronized (this) {
+                    for (Map.Entry<Sha256Hash, Long> entry : built.entrySet()) {
+                        if (!pendingNetValues.containsKey(entry.getKey())) {
+                            pendingNetValues.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    initialized = true;
+                }
+            }
+            while (true) {
+                long changes;
+                synchronized (this) {
+                    if (!confirmedDirty) {
+                        publish();
+                        return balance;
+                    }
+                    changes = confirmedChanges;
+                }
+                // a change racing with this leaves the part dirty, and it is asked for again
+                refreshConfirmed(changes);
+            }
+        }
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        update(tx, true);
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        update(tx, true);
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        update(tx, false);
+    }
+
+    @Override
+    public synchronized void onReorganize(Wallet wallet) {
+        pendingNetValues.clear();
+        initialized = false;
+        confirmedDirty = true;
+        confirmedChanges++;
+        balance = null;
+    }
+
+    @Override
+    public void onWalletChanged(Wallet wallet) {
+        long changes;
+        synchronized (this) {
+            if (!confirmedDirty || !initialized) {
+                return;
+            }
+            changes = confirmedChanges;
+        }
+        refreshConfirmed(changes);
+    }
+
+    /**
+     * Asks the wallet for the estimated balance and takes it as the confirmed part, unless the part got dirty
+     * again meanwhile: then the value may be older than the one written by whoever asked after that change.
+     */
+    private void refreshConfirmed(long changes) {
+        long estimated = wallet.getBalance(Wallet.BalanceType.ESTIMATED).getValue();
+        synchronized (this) {
+            if (changes != confirmedChanges) {
+                return;
+            }
+            confirmed = estimated;
+            confirmedDirty = false;
+            if (initialized) {
+                publish();
+            }
+        }
+    }
+
+    private void update(Transaction tx, boolean balanceChanged) {
+        ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+        Long netValue = confidenceType == ConfidenceType.PENDING ? netValue(tx) : null;
+        synchronized (this) {
+            Long previous = netValue != null
+                    ? pendingNetValues.put(tx.getHash(), netValue)
+                    : pendingNetValues.remove(tx.getHash());
+            if (!balanceChanged && previous == null && netValue == null && confidenceType != ConfidenceType.DEAD) {
+                // a building transaction got deeper, nothing changed for us
+                return;
+            }
+            confirmedDirty = true;
+            confirmedChanges++;
+            if (initialized) {
+                publish();
+            }
+        }
+    }
+
+    // guarded by "this"
+    private void publish() {
+        long sending = 0L;
+        long receiving = 0L;
+        for (long netValue : pendingNetValues.values()) {
+            if (netValue < 0) {
+                sending -= netValue;
+            } else {
+                receiving += netValue;
+            }
+        }
+        if (confirmedDirty) {
+            // the confirmed part follows with the next wallet change, keep the old value meanwhile
+            balance = balance != null ? new Balance(confirmed, sending, receiving) : null;
+        } else {
+            balance = new Balance(confirmed, sending, receiving);
+        }
+    }
+
+    private long netValue(Transaction tx) {
+        return tx.getValueSentToMe(wallet).minus(tx.getValueSentFromMe(wallet)).getValue();
+    }
+}
@@ -0,0 +1,60 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.mycelium.spvmodule.TransactionFee;
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Largest amount that can be sent in a single output at a given {@link TransactionFee} level.
+ * <p>
+ * Outputs are added largest first, as many as fit into {@link Transaction#MAX_STANDARD_TX_SIZE}, and the
+ * input count that leaves the most after the estimated fee wins, so outputs worth less than the fee for
+ * spending them are left out. Only the snapshot is read, never the wallet, so no query waits for the wallet
+ * lock. Results are cached per fee level until a different {@link SpendableOutputs.Snapshot} is passed in
+ * after a wallet change.
+ */
+public class MaxSpendableEngine {
+
+    // inputs of a single output transaction that fit into a standard transaction
+    static final int MAX_INPUTS = (Transaction.MAX_STANDARD_TX_SIZE - SendAmountEstimator.estimateSize(0, 1))
+            / SendAmountEstimator.INPUT_BYTES;
+
+    // guarded by "this"
+    private SpendableOutputs.Snapshot cachedFor;
+    private final Map<TransactionFee, Coin> cache = new EnumMap<>(TransactionFee.class);
+
+    public Coin getMaxSpendable(SpendableOutputs.Snapshot outputs, TransactionFee minerFee) {
+        synchronized (this) {
+            if (cachedFor != outputs) {
+                cache.clear();
+                cachedFor = outputs;
+            }
+            Coin maxSpendable = cache.get(minerFee);
+            if (maxSpendable == null) {
+                maxSpendable = Coin.valueOf(calculate(outputs, Constants.minerFeeValue(minerFee)));
+                cache.put(minerFee, maxSpendable);
+            }
+            return maxSpendable;
+        }
+    }
+
+    static long calculate(SpendableOutputs.Snapshot outputs, Coin feePerKb) {
+        long best = 0;
+        long gathered = 0;
+        int maxInputs = Math.min(outputs.values.length, MAX_INPUTS);
+        for (int i = 0; i < maxInputs; i++) {
+            gathered += outputs.values[i];
+            // a single output paying everything, no change
+            long spendable = gathered - SendAmountEstimator.maxFee(i + 1, 1, feePerKb);
+            if (spendable > best) {
+                best = spendable;
+            }
+        }
+        return best;
+    }
+}
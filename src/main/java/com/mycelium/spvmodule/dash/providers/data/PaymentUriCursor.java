@@ -0,0 +1,27 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import android.database.MatrixCursor;
+
+import com.mycelium.spvmodule.dash.providers.DashTransactionContract;
+import com.mycelium.spvmodule.providers.TransactionContract;
+
+/**
+ * VALIDATE_QR_CODE row with the parsed payment URI next to the contract columns.
+ */
+public class PaymentUriCursor extends MatrixCursor {
+
+    private static String[] columnNames = {
+            TransactionContract.ValidateQrCode.QR_CODE,
+            TransactionContract.ValidateQrCode.IS_VALID,
+            DashTransactionContract.ValidateQrCode.ADDRESS,
+            DashTransactionContract.ValidateQrCode.AMOUNT,
+            DashTransactionContract.ValidateQrCode.LABEL,
+            DashTransactionContract.ValidateQrCode.MESSAGE,
+            DashTransactionContract.ValidateQrCode.IS_INSTANT_SEND,
+            DashTransactionContract.ValidateQrCode.PAYMENT_REQUEST_URL
+    };
+
+    public PaymentUriCursor() {
+        super(columnNames, 1);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * Keeps the current receive address of a wallet, and its QR string, resolved ahead of queries.
+ * <p>
+ * Moving on to the next receive key can derive keys, extend the lookahead and update the bloom filter.
+ * That only happens after the current address received coins, so the address is resolved again on a
+ * background executor right after such transactions, and readers just take the last {@link Entry}.
+ */
+public class ReceiveAddressPool implements WalletCoinsReceivedEventListener, WalletReorganizeEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ReceiveAddressPool.class);
+
+    public static class Entry {
+        public final Address address;
+        public final String qrString;
+
+        Entry(Address address) {
+            this.address = address;
+            this.qrString = Constants.QR_ADDRESS_PREFIX + address;
+        }
+    }
+
+    private final Wallet wallet;
+    private final Executor executor;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final Object refreshLock = new Object();
+    private volatile Entry current;
+
+    public ReceiveAddressPool(Wallet wallet, Executor executor) {
+        this.wallet = wallet;
+        this.executor = executor;
+    }
+
+    public void attach() {
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        scheduleRefresh();
+    }
+
+    public void detach() {
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeCoinsReceivedEventListener(this);
+    }
+
+    /**
+     * @return the current receive address, only resolved on the calling thread before the first refresh
+     */
+    public Entry getCurrent() {
+        Entry entry = current;
+        return entry != null ? entry : refresh();
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        scheduleRefresh();
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+        scheduleRefresh();
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshScheduled.set(false);
+                    refresh();
+                }
+            });
+        }
+    }
+
+    private Entry refresh() {
+        synchronized (refreshLock) {
+            propagate(Constants.CONTEXT);
+            Address address = wallet.currentReceiveAddress();
+            if (address == null) {
+                address = wallet.freshReceiveAddress();
+            }
+            Entry entry = current;
+            if (entry == null || !entry.address.equals(address)) {
+                entry = new Entry(address);
+                current = entry;
+                log.debug("Current receive address is now {}", address);
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+
+/**
+ * Decides cheaply whether an amount can be sent from a {@link SpendableOutputs.Snapshot}.
+ * <p>
+ * Only answers that hold for any coin selection are given, i.e. the amount fits even when paying the fee
+ * for spending every output in a standard sized transaction, or it doesn't fit even with the smallest
+ * possible fee. Everything in between is {@link Estimate#UNSURE} and has to be decided by a real
+ * {@code Wallet.completeTx}.
+ */
+public final class SendAmountEstimator {
+
+    // sizes of a P2PKH transaction
+    static final int TX_OVERHEAD_BYTES = 10;
+    static final int INPUT_BYTES = 148;
+    static final int OUTPUT_BYTES = 34;
+
+    public enum Estimate {
+        OK, NOT_ENOUGH_FUNDS, UNSURE
+    }
+
+    private SendAmountEstimator() {
+    }
+
+    public static Estimate estimate(SpendableOutputs.Snapshot outputs, long amount, Coin feePerKb) {
+        if (amount < Transaction.MIN_NONDUST_OUTPUT.getValue()) {
+            // let completeTx tell dust and invalid amounts apart
+            return Estimate.UNSURE;
+        }
+        int inputCount = outputs.values.length;
+        if (inputCount == 0 || outputs.total < amount + minFee(1, 1, feePerKb)) {
+            return Estimate.NOT_ENOUGH_FUNDS;
+        }
+        if (estimateSize(inputCount, 2) > Transaction.MAX_STANDARD_TX_SIZE) {
+            // spending every output would be too large, only completeTx knows whether its selection fits
+            return Estimate.UNSURE;
+        }
+        // worst case: all inputs, payment and change output, change must not end up as dust
+        long worstCaseFee = maxFee(inputCount, 2, feePerKb);
+        if (outputs.total >= amount + worstCaseFee + Transaction.MIN_NONDUST_OUTPUT.getValue()) {
+            return Estimate.OK;
+        }
+        return Estimate.UNSURE;
+    }
+
+    static int estimateSize(int inputs, int outputs) {
+        return TX_OVERHEAD_BYTES + inputs * INPUT_BYTES + outputs * OUTPUT_BYTES;
+    }
+
+    /**
+     * @return a lower bound of the fee the wallet asks for a transaction of this shape
+     */
+    static long minFee(int inputs, int outputs, Coin feePerKb) {
+        return feePerKb.getValue() * estimateSize(inputs, outputs) / 1000;
+    }
+
+    /**
+     * @return an upper bound of the fee the wallet asks for a transaction of this shape, allowing for the
+     * reference minimum fee and fees rounded up to whole kilobytes
+     */
+    static long maxFee(int inputs, int outputs, Coin feePerKb) {
+        long perKb = Math.max(feePerKb.getValue(), Transaction.REFERENCE_DEFAULT_MIN_TX_FEE.getValue());
+        return perKb * (estimateSize(inputs, outputs) / 1000 + 1);
+    }
+}
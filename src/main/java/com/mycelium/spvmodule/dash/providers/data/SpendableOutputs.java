@@ -0,0 +1,85 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * Cached view of the values of the outputs the wallet could spend right now, largest first.
+ * <p>
+ * It is built from the same candidates and the same selectability rule the default coin selector uses,
+ * and dropped whenever the wallet changes.
+ */
+public class SpendableOutputs implements WalletChangeEventListener {
+
+    public static class Snapshot {
+        /**
+         * Output values in satoshis, largest first.
+         */
+        public final long[] values;
+        public final long total;
+
+        Snapshot(long[] values) {
+            this.values = values;
+            long sum = 0;
+            for (long value : values) {
+                sum += value;
+            }
+            this.total = sum;
+        }
+    }
+
+    private final Wallet wallet;
+    private volatile Snapshot snapshot;
+
+    public SpendableOutputs(Wallet wallet) {
+        this.wallet = wallet;
+    }
+
+    public void attach() {
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public void detach() {
+        wallet.removeChangeEventListener(this);
+    }
+
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            propagate(Constants.CONTEXT);
+            List<TransactionOutput> candidates = wallet.calculateAllSpendCandidates(true, true);
+            long[] values = new long[candidates.size()];
+            int count = 0;
+            for (TransactionOutput candidate : candidates) {
+                if (DefaultCoinSelector.isSelectable(candidate.getParentTransaction())) {
+                    values[count++] = candidate.getValue().getValue();
+                }
+            }
+            values = Arrays.copyOf(values, count);
+            Arrays.sort(values);
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                long tmp = values[i];
+                values[i] = values[j];
+                values[j] = tmp;
+            }
+            current = new Snapshot(values);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void onWalletChanged(Wallet wallet) {
+        snapshot = null;
+    }
+}
@@ -0,0 +1,291 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.google.common.base.Stopwatch;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionDetails;
+import com.mycelium.spvmodule.dash.util.AddressCache;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link TransactionDetails} of every non-dead wallet transaction by txid, holding the input and output items
+ * ready to use.
+ * <p>
+ * Entries are only built where nothing can change the transaction meanwhile: in the wallet listeners, which
+ * run with the wallet lock held, and in {@link #attach()}, before the wallet is connected to the chain.
+ * Items only change when the confidence type of the transaction changes or when one of its inputs gets
+ * connected to a newly arrived transaction, so entries are rebuilt on exactly those events. The depth is
+ * the only value that moves with every block, it is derived from the height of the snapshot on each lookup.
+ */
+public class TransactionDetailsCache implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        WalletReorganizeEventListener, TransactionConfidenceEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionDetailsCache.class);
+
+    private static class Entry {
+        final TransactionDetails details;
+        final TransactionConfidence.ConfidenceType confidenceType;
+        // -1 unless building
+        final int appearedAtHeight;
+        // transactions with outputs that some input spends but was not connected to yet
+        final Set<Sha256Hash> unresolvedParents;
+
+        Entry(TransactionDetails details, TransactionConfidence.ConfidenceType confidenceType, int appearedAtHeight,
+              Set<Sha256Hash> unresolvedParents) {
+            this.details = details;
+            this.confidenceType = confidenceType;
+            this.appearedAtHeight = appearedAtHeight;
+            this.unresolvedParents = unresolvedParents;
+        }
+    }
+
+    /**
+     * Immutable copy of all entries as of one wallet change.
+     */
+    public static class Snapshot {
+        private final Map<Sha256Hash, Entry> entries;
+
+        Snapshot(Map<Sha256Hash, Entry> entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * @return details of the wallet transaction with this hash, or null if the wallet doesn't know it
+         */
+        public TransactionDetails get(Sha256Hash txid, int lastBlockSeenHeight) {
+            Entry entry = entries.get(txid);
+            if (entry == null) {
+                return null;
+            }
+            TransactionDetails details = entry.details;
+            int depth = entry.appearedAtHeight >= 0 ? Math.max(0, lastBlockSeenHeight - entry.appearedAtHeight + 1) : 0;
+            if (depth == details.height) {
+                return details;
+            }
+            return new TransactionDetails(details.hash, depth, details.time, details.inputs, details.outputs,
+                    details.rawSize);
+        }
+    }
+
+    private final Wallet wallet;
+
+    // guarded by "this"; listeners enter with the wallet lock held, so never call into the wallet while holding it
+    private final Map<Sha256Hash, Entry> entries = new HashMap<>();
+    // parent txid to the transactions waiting for it
+    private final Map<Sha256Hash, Set<Sha256Hash>> waitingFor = new HashMap<>();
+    private Snapshot snapshot;
+
+    public TransactionDetailsCache(Wallet wallet) {
+        this.wallet = wallet;
+    }
+
+    /**
+     * Builds all entries, call this before the wallet is added to the chain.
+     */
+    public void attach() {
+        rebuild();
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public void detach() {
+        wallet.removeTransactionConfidenceEventListener(this);
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeCoinsSentEventListener(this);
+        wallet.removeCoinsReceivedEventListener(this);
+    }
+
+    public synchronized Snapshot getSnapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(Collections.unmodifiableMap(new HashMap<>(entries)));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        onTransactionAdded(tx);
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        onTransactionAdded(tx);
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+        // confidences of many transactions moved at once
+        rebuild();
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        TransactionConfidence confidence = tx.getConfidence();
+        if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+            remove(tx.getHash());
+            return;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(tx.getHash());
+        }
+        if (entry == null || entry.confidenceType != confidence.getConfidenceType()
+                || entry.appearedAtHeight != appearedAtHeight(confidence)) {
+            put(build(tx));
+        }
+    }
+
+    /**
+     * Throws all entries away and builds them again from the wallet. Only call this with the wallet lock held
+     * or while the wallet is not connected to the chain, e.g. after a reset.
+     */
+    public void rebuild() {
+        final Stopwatch watch = Stopwatch.createStarted();
+        Map<Sha256Hash, Entry> built = new HashMap<>();
+        for (Transaction transaction : wallet.getTransactions(false)) {
+            built.put(transaction.getHash(), build(transaction));
+        }
+        synchronized (this) {
+            entries.clear();
+            waitingFor.clear();
+            for (Entry entry : built.values()) {
+                putEntry(entry);
+            }
+        }
+        watch.stop();
+        log.info("Transaction details built for {} transactions, took {}", built.size(), watch);
+    }
+
+    private void onTransactionAdded(Transaction tx) {
+        put(build(tx));
+        // the new transaction may be the one unresolved inputs of others were waiting for
+        Set<Sha256Hash> waiting;
+        synchronized (this) {
+            waiting = waitingFor.remove(tx.getHash());
+        }
+        if (waiting != null) {
+            for (Sha256Hash txid : waiting) {
+                // still within the listener, so the wallet lock is held
+                Transaction child = wallet.getTransaction(txid);
+                if (child != null) {
+                    put(build(child));
+                }
+            }
+        }
+    }
+
+    private synchronized void put(Entry entry) {
+        putEntry(entry);
+    }
+
+    // guarded by "this"
+    private void putEntry(Entry entry) {
+        Sha256Hash txid = entry.details.hash;
+        Entry previous = entries.put(txid, entry);
+        if (previous != null) {
+            unregister(txid, previous);
+        }
+        for (Sha256Hash parent : entry.unresolvedParents) {
+            Set<Sha256Hash> waiting = waitingFor.get(parent);
+            if (waiting == null) {
+                waiting = new HashSet<>();
+                waitingFor.put(parent, waiting);
+            }
+            waiting.add(txid);
+        }
+        snapshot = null;
+    }
+
+    private synchronized void remove(Sha256Hash txid) {
+        Entry previous = entries.remove(txid);
+        if (previous != null) {
+            unregister(txid, previous);
+            snapshot = null;
+        }
+    }
+
+    // guarded by "this"
+    private void unregister(Sha256Hash txid, Entry entry) {
+        for (Sha256Hash parent : entry.unresolvedParents) {
+            Set<Sha256Hash> waiting = waitingFor.get(parent);
+            if (waiting != null && waiting.remove(txid) && waiting.isEmpty()) {
+                waitingFor.remove(parent);
+            }
+        }
+    }
+
+    private static int appearedAtHeight(TransactionConfidence confidence) {
+        return confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING
+                ? confidence.getAppearedAtChainHeight() : -1;
+    }
+
+    private static Entry build(Transaction transaction) {
+        AddressCache addressCache = AddressCache.getInstance();
+        Set<Sha256Hash> unresolvedParents = Collections.emptySet();
+        TransactionDetails.Item[] inputs = new TransactionDetails.Item[transaction.getInputs().size()];
+        int i = 0;
+        for (TransactionInput input : transaction.getInputs()) {
+            TransactionOutput connectedOutput = input.getOutpoint().getConnectedOutput();
+            if (connectedOutput == null && !input.isCoinBase()) {
+                if (unresolvedParents.isEmpty()) {
+                    unresolvedParents = new HashSet<>();
+                }
+                unresolvedParents.add(input.getOutpoint().getHash());
+            }
+            Coin value = input.getValue();
+
+            AddressCache.Entry address = connectedOutput != null ? addressCache.forOutput(connectedOutput) : null;
+            if (address == null) {
+                address = addressCache.getNullAddress();
+            }
+            inputs[i++] = new TransactionDetails.Item(
+                    address.address, address.base58,
+                    value != null ? value.getValue() : 0L,
+                    input.isCoinBase());
+        }
+
+        TransactionDetails.Item[] outputs = new TransactionDetails.Item[transaction.getOutputs().size()];
+        i = 0;
+        for (TransactionOutput output : transaction.getOutputs()) {
+            AddressCache.Entry address = addressCache.forOutput(output);
+            if (address == null) {
+                address = addressCache.getNullAddress();
+            }
+            Coin value = output.getValue();
+            outputs[i++] = new TransactionDetails.Item(
+                    address.address, address.base58,
+                    value != null ? value.getValue() : 0L,
+                    false);
+        }
+
+        TransactionConfidence confidence = transaction.getConfidence();
+        TransactionDetails details = new TransactionDetails(
+                transaction.getHash(),
+                confidence.getDepthInBlocks(),
+                (int) (transaction.getUpdateTime().getTime() / 1000),
+                inputs,
+                outputs,
+                transaction.getOptimalEncodingMessageSize());
+        return new Entry(details, confidence.getConfidenceType(), appearedAtHeight(confidence), unresolvedParents);
+    }
+}
@@ -1,10 +1,13 @@
 package com.mycelium.spvmodule.dash.providers.data;
 
-import android.database.MatrixCursor;
+import android.database.CursorWindow;
 
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionDetails;
 import com.mycelium.spvmodule.providers.TransactionContract;
 
-public class TransactionDetailsCursor extends MatrixCursor {
+import java.util.List;
+
+public class TransactionDetailsCursor extends WindowedCursor {
 
     private static String[] columnNames = {
             TransactionContract.TransactionDetails._ID, TransactionContract.TransactionDetails.HEIGHT,
@@ -12,7 +15,38 @@ public class TransactionDetailsCursor extends MatrixCursor {
             TransactionContract.TransactionDetails.INPUTS, TransactionContract.TransactionDetails.OUTPUTS
     };
 
-    public TransactionDetailsCursor() {
-        super(columnNames, 1);
+    private final List<TransactionDetails> rows;
+
+    public TransactionDetailsCursor(List<TransactionDetails> rows) {
+        super(columnNames);
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    protected boolean fillRow(CursorWindow window, int position) {
+        TransactionDetails transactionDetails = rows.get(position);
+        return window.putString(transactionDetails.hash.toString(), position, 0)    //TransactionContract.Transaction._ID
+                && window.putLong(transactionDetails.height, position, 1)           //TransactionContract.Transaction.HEIGHT
+                && window.putLong(transactionDetails.time, position, 2)             //TransactionContract.Transaction.TIME
+                && window.putLong(transactionDetails.rawSize, position, 3)          //TransactionContract.Transaction.RAW_SIZE
+                && window.putString(joinItems(transactionDetails.inputs), position, 4)     //TransactionContract.Transaction.INPUTS
+                && window.putString(joinItems(transactionDetails.outputs), position, 5);   //TransactionContract.Transaction.OUTPUTS
+    }
+
+    private static String joinItems(TransactionDetails.Item[] items) {
+        StringBuilder builder = new StringBuilder();
+        for (TransactionDetails.Item item : items) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+            builder.append(item.value + " BTC");   //FIXME we should get rid of 'BTC' over here
+            builder.append(item.addressBase58);
+        }
+        return builder.toString();
     }
 }
@@ -0,0 +1,42 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import android.database.CursorWindow;
+
+import com.mycelium.spvmodule.dash.providers.DashTransactionContract;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionDetails;
+
+public class TransactionDetailsItemsCursor extends WindowedCursor {
+
+    private static String[] columnNames = {
+            DashTransactionContract.TransactionDetailsItem.TXID, DashTransactionContract.TransactionDetailsItem.IS_INPUT,
+            DashTransactionContract.TransactionDetailsItem.ITEM_INDEX, DashTransactionContract.TransactionDetailsItem.VALUE,
+            DashTransactionContract.TransactionDetailsItem.ADDRESS, DashTransactionContract.TransactionDetailsItem.IS_COINBASE
+    };
+
+    private final TransactionDetails details;
+    private final String txid;
+
+    public TransactionDetailsItemsCursor(TransactionDetails details) {
+        super(columnNames);
+        this.details = details;
+        this.txid = details.hash.toString();
+    }
+
+    @Override
+    public int getCount() {
+        return details.inputs.length + details.outputs.length;
+    }
+
+    @Override
+    protected boolean fillRow(CursorWindow window, int position) {
+        boolean isInput = position < details.inputs.length;
+        int index = isInput ? position : position - details.inputs.length;
+        TransactionDetails.Item item = isInput ? details.inputs[index] : details.outputs[index];
+        return window.putString(txid, position, 0)                          //DashTransactionContract.TransactionDetailsItem.TXID
+                && putBoolean(window, isInput, position, 1)                 //DashTransactionContract.TransactionDetailsItem.IS_INPUT
+                && window.putLong(index, position, 2)                       //DashTransactionContract.TransactionDetailsItem.ITEM_INDEX
+                && window.putLong(item.value, position, 3)                  //DashTransactionContract.TransactionDetailsItem.VALUE
+                && putString(window, item.addressBase58, position, 4)       //DashTransactionContract.TransactionDetailsItem.ADDRESS
+                && putBoolean(window, item.isCoinbase, position, 5);        //DashTransactionContract.TransactionDetailsItem.IS_COINBASE
+    }
+}
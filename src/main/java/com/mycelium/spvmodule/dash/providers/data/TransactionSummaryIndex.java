@@ -0,0 +1,295 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.mycelium.spvmodule.dash.Constants;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionSummary;
+import com.mycelium.spvmodule.dash.util.AddressCache;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * In-memory index of {@link TransactionSummary} rows for one wallet, newest first.
+ * <p>
+ * The index is built once on first access and afterwards kept current by the wallet listeners, so
+ * provider queries only read a ready, immutable snapshot instead of rebuilding the whole history. The rows
+ * are kept sorted as they change: a new depth replaces its row in place, only a new update time moves it.
+ */
+public class TransactionSummaryIndex implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        WalletReorganizeEventListener, TransactionConfidenceEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionSummaryIndex.class);
+
+    private static final Comparator<TransactionSummary> NEWEST_FIRST = new Comparator<TransactionSummary>() {
+        @Override
+        public int compare(TransactionSummary o1, TransactionSummary o2) {
+            if (o1.time != o2.time) {
+                return o1.time < o2.time ? 1 : -1;
+            }
+            return o1.txid.compareTo(o2.txid);
+        }
+    };
+
+    private final Wallet wallet;
+
+    // guarded by "this"; listeners enter with the wallet lock held, so never call into the wallet while holding it
+    private final Map<Sha256Hash, TransactionSummary> summaries = new HashMap<>();
+    // the values of summaries, newest first
+    private final List<TransactionSummary> sorted = new ArrayList<>();
+    private boolean initialized = false;
+    private volatile List<TransactionSummary> snapshot;
+
+    // serializes the initial build, never taken by the listeners
+    private final Object buildLock = new Object();
+
+    public TransactionSummaryIndex(Wallet wallet) {
+        this.wallet = wallet;
+    }
+
+    public void attach() {
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public void detach() {
+        wallet.removeTransactionConfidenceEventListener(this);
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeCoinsSentEventListener(this);
+        wallet.removeCoinsReceivedEventListener(this);
+    }
+
+    /**
+     * @return all non-dead transactions of the wallet, sorted by update time, newest first
+     */
+    public List<TransactionSummary> getSnapshot() {
+        List<TransactionSummary> current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        ensureBuilt();
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(sorted));
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Keyset paging over a list returned by {@link #getSnapshot()}.
+     *
+     * @param beforeTime  only rows older than this update time (seconds), or null to start at the newest row
+     * @param beforeTxid  txid of the last row already seen with {@code beforeTime}, or null
+     * @param limit       maximum number of rows, or a negative value for no limit
+     */
+    public static Page getPage(List<TransactionSummary> all, Long beforeTime, Sha256Hash beforeTxid, int limit) {
+        int from = 0;
+        if (beforeTime != null) {
+            // first row that sorts after (beforeTime, beforeTxid)
+            int low = 0;
+            int high = all.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                TransactionSummary row = all.get(mid);
+                boolean isAfter = row.time < beforeTime
+                        || (row.time == beforeTime && beforeTxid != null && row.txid.compareTo(beforeTxid) > 0);
+                if (isAfter) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            from = low;
+        }
+        int to = limit < 0 ? all.size() : (int) Math.min(all.size(), (long) from + limit);
+        return new Page(all.subList(from, to), to < all.size());
+    }
+
+    public static class Page {
+        public final List<TransactionSummary> rows;
+        public final boolean hasMore;
+
+        Page(List<TransactionSummary> rows, boolean hasMore) {
+            this.rows = rows;
+            this.hasMore = hasMore;
+        }
+    }
+
+    private void ensureBuilt() {
+        synchronized (buildLock) {
+            synchronized (this) {
+                if (initialized) {
+                    return;
+                }
+            }
+            propagate(Constants.CONTEXT);
+            final Stopwatch watch = Stopwatch.createStarted();
+            List<TransactionSummary> built = new ArrayList<>();
+            for (Transaction transaction : wallet.getTransactions(false)) {
+                built.add(summarize(wallet, transaction));
+            }
+            synchronized (this) {
+                for (TransactionSummary summary : built) {
+                    // entries put by the listeners meanwhile are newer than ours
+                    if (!summaries.containsKey(summary.txid)) {
+                        summaries.put(summary.txid, summary);
+                    }
+                }
+                sorted.clear();
+                sorted.addAll(summaries.values());
+                Collections.sort(sorted, NEWEST_FIRST);
+                initialized = true;
+                snapshot = null;
+            }
+            watch.stop();
+            log.info("Transaction summary index built for {} transactions, took {}", built.size(), watch);
+        }
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        put(summarize(wallet, tx));
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        put(summarize(wallet, tx));
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+        synchronized (this) {
+            summaries.clear();
+            sorted.clear();
+            initialized = false;
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        TransactionConfidence confidence = tx.getConfidence();
+        if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+            remove(tx.getHash());
+            return;
+        }
+        TransactionSummary previous;
+        synchronized (this) {
+            if (!initialized) {
+                // the initial build will read the current confidence
+                return;
+            }
+            previous = summaries.get(tx.getHash());
+        }
+        if (previous == null) {
+            put(summarize(wallet, tx));
+            return;
+        }
+        // only the depth moves when a block arrives, value and addresses stay the same
+        int depth = confidence.getDepthInBlocks();
+        long time = tx.getUpdateTime().getTime() / 1000;
+        if (depth != previous.confirmations || time != previous.time) {
+            put(new TransactionSummary(previous.txid, previous.value, previous.isIncoming, time, depth, depth,
+                    previous.isQueuedOutgoing, previous.destinationAddress, previous.toAddresses,
+                    previous.destinationAddressBase58, previous.toAddressesBase58));
+        }
+    }
+
+    private synchronized void put(TransactionSummary summary) {
+        TransactionSummary previous = summaries.put(summary.txid, summary);
+        if (previous != null) {
+            int index = Collections.binarySearch(sorted, previous, NEWEST_FIRST);
+            if (NEWEST_FIRST.compare(previous, summary) == 0) {
+                // same position, e.g. only the depth moved
+                sorted.set(index, summary);
+                snapshot = null;
+                return;
+            }
+            sorted.remove(index);
+        }
+        int index = Collections.binarySearch(sorted, summary, NEWEST_FIRST);
+        sorted.add(-index - 1, summary);
+        snapshot = null;
+    }
+
+    private synchronized void remove(Sha256Hash txid) {
+        TransactionSummary previous = summaries.remove(txid);
+        if (previous != null) {
+            sorted.remove(Collections.binarySearch(sorted, previous, NEWEST_FIRST));
+            snapshot = null;
+        }
+    }
+
+    static TransactionSummary summarize(Wallet wallet, Transaction dashjTransaction) {
+        AddressCache addressCache = AddressCache.getInstance();
+        List<Address> toAddresses = new ArrayList<>();
+        StringBuilder toAddressesBuilder = new StringBuilder();
+        AddressCache.Entry destAddress = null;
+
+        for (TransactionOutput transactionOutput : dashjTransaction.getOutputs()) {
+            AddressCache.Entry toAddress = addressCache.forOutput(transactionOutput);
+            if (toAddress == null) {
+                // e.g. OP_RETURN, nothing to show
+                continue;
+            }
+            if (!transactionOutput.isMine(wallet)) {
+                destAddress = toAddress;
+            }
+            toAddresses.add(toAddress.address);
+            if (toAddressesBuilder.length() > 0) {
+                toAddressesBuilder.append(",");
+            }
+            toAddressesBuilder.append(toAddress.base58);
+        }
+
+        int confirmations = dashjTransaction.getConfidence().getDepthInBlocks();
+        boolean isQueuedOutgoing = false; //FIXME Change the UI so MBW understand BitcoinJ confidence type.
+        Optional<Address> destAddressOptional;
+        if (destAddress != null) {
+            destAddressOptional = Optional.of(destAddress.address);
+        } else {
+            destAddressOptional = Optional.absent();
+        }
+        Coin dashjValue = dashjTransaction.getValue(wallet);
+        boolean isIncoming;
+        if (dashjValue.isPositive()) {
+            isIncoming = true;
+        } else {
+            isIncoming = false;
+            dashjValue = dashjValue.negate();
+        }
+        int height = dashjTransaction.getConfidence().getDepthInBlocks();
+        return new TransactionSummary(
+                dashjTransaction.getHash(),
+                dashjValue, isIncoming,
+                dashjTransaction.getUpdateTime().getTime() / 1000,
+                height, confirmations,
+                isQueuedOutgoing, destAddressOptional, toAddresses,
+                destAddress != null ? destAddress.base58 : null, toAddressesBuilder.toString()
+        );
+    }
+}
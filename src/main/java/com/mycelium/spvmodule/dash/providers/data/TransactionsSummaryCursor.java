@@ -1,10 +1,15 @@
 package com.mycelium.spvmodule.dash.providers.data;
 
-import android.database.MatrixCursor;
+import android.database.CursorWindow;
+import android.os.Bundle;
 
+import com.mycelium.spvmodule.dash.providers.DashTransactionContract;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionSummary;
 import com.mycelium.spvmodule.providers.TransactionContract;
 
-public class TransactionsSummaryCursor extends MatrixCursor {
+import java.util.List;
+
+public class TransactionsSummaryCursor extends WindowedCursor {
 
     private static String[] columnNames = {
             TransactionContract.TransactionSummary._ID, TransactionContract.TransactionSummary.VALUE,
@@ -15,7 +20,40 @@ public class TransactionsSummaryCursor extends MatrixCursor {
             TransactionContract.TransactionSummary.DESTINATION_ADDRESS, TransactionContract.TransactionSummary.TO_ADDRESSES
     };
 
-    public TransactionsSummaryCursor(int initialCapacity) {
-        super(columnNames, initialCapacity);
+    private final List<TransactionSummary> rows;
+    private final Bundle extras = new Bundle();
+
+    public TransactionsSummaryCursor(List<TransactionSummary> rows, boolean hasMore) {
+        super(columnNames);
+        this.rows = rows;
+        extras.putBoolean(DashTransactionContract.TransactionSummary.EXTRA_HAS_MORE, hasMore);
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return extras;
+    }
+
+    @Override
+    protected boolean fillRow(CursorWindow window, int position) {
+        TransactionSummary rowItem = rows.get(position);
+        return window.putString(rowItem.txid.toString(), position, 0)                 //TransactionContract.TransactionSummary._ID
+                && window.putString(rowItem.value.toPlainString(), position, 1)       //TransactionContract.TransactionSummary.VALUE
+                && putBoolean(window, rowItem.isIncoming, position, 2)                //TransactionContract.TransactionSummary.IS_INCOMING
+                && window.putLong(rowItem.time, position, 3)                          //TransactionContract.TransactionSummary.TIME
+                && window.putLong(rowItem.height, position, 4)                        //TransactionContract.TransactionSummary.HEIGHT
+                && window.putLong(rowItem.confirmations, position, 5)                 //TransactionContract.TransactionSummary.CONFIRMATIONS
+                && putBoolean(window, rowItem.isQueuedOutgoing, position, 6)          //TransactionContract.TransactionSummary.IS_QUEUED_OUTGOING
+                //FIXME do we need those values? (com.mycelium.wapi.model.TransactionSummary.confirmationRiskProfile [ConfirmationRiskProfileLocal])
+                && window.putLong(-1, position, 7)
+                && window.putNull(position, 8)
+                && window.putNull(position, 9)
+                && putString(window, rowItem.destinationAddressBase58, position, 10)                //TransactionContract.TransactionSummary.DESTINATION_ADDRESS
+                && window.putString(rowItem.toAddressesBase58, position, 11);     //TransactionContract.TransactionSummary.TO_ADDRESSES
     }
 }
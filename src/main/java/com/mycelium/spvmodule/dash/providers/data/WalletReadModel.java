@@ -0,0 +1,155 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.google.common.base.Stopwatch;
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.bitcoinj.core.Context.propagate;
+
+/**
+ * Copy-on-write read side of one wallet for the provider.
+ * <p>
+ * After every burst of wallet changes a background thread takes the wallet lock once, collects balances,
+ * summaries, spendable outputs and the receive address, and publishes them as a new immutable
+ * {@link WalletSnapshot}. Provider queries read the last published snapshot and so never contend with
+ * block processing for the wallet lock. A wallet reset is handed to the components like a reorganize.
+ */
+public class WalletReadModel implements WalletChangeEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletReadModel.class);
+
+    public interface OnSnapshotPublishedListener {
+        /**
+         * Called on the publishing thread, without the wallet lock held.
+         */
+        void onSnapshotPublished(WalletSnapshot snapshot);
+    }
+
+    private final Wallet wallet;
+    private final TransactionSummaryIndex transactionSummaryIndex;
+    private final AccountBalanceProjection accountBalanceProjection;
+    private final SpendableOutputs spendableOutputs;
+    private final TransactionDetailsCache transactionDetailsCache;
+    private final ReceiveAddressPool receiveAddressPool;
+    private final MaxSpendableEngine maxSpendableEngine = new MaxSpendableEngine();
+
+    // written by the change listener, which runs with the wallet lock held
+    private volatile int lastBlockSeenHeight;
+
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(
+            new ContextPropagatingThreadFactory("wallet read model"));
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    private final Object publishLock = new Object();
+    private volatile WalletSnapshot snapshot;
+    private volatile OnSnapshotPublishedListener onSnapshotPublishedListener;
+
+    public WalletReadModel(Wallet wallet) {
+        this.wallet = wallet;
+        this.transactionSummaryIndex = new TransactionSummaryIndex(wallet);
+        this.accountBalanceProjection = new AccountBalanceProjection(wallet);
+        this.spendableOutputs = new SpendableOutputs(wallet);
+        this.transactionDetailsCache = new TransactionDetailsCache(wallet);
+        this.receiveAddressPool = new ReceiveAddressPool(wallet, publisher);
+    }
+
+    public void attach() {
+        transactionSummaryIndex.attach();
+        accountBalanceProjection.attach();
+        spendableOutputs.attach();
+        transactionDetailsCache.attach();
+        receiveAddressPool.attach();
+        lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+        // registered last, so the components above have seen the change when it comes in
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+        // the first snapshot is built in the background rather than by the first query
+        schedulePublish();
+    }
+
+    public void detach() {
+        wallet.removeChangeEventListener(this);
+        receiveAddressPool.detach();
+        transactionDetailsCache.detach();
+        spendableOutputs.detach();
+        accountBalanceProjection.detach();
+        transactionSummaryIndex.detach();
+        publisher.shutdown();
+    }
+
+    public void setOnSnapshotPublishedListener(OnSnapshotPublishedListener listener) {
+        this.onSnapshotPublishedListener = listener;
+    }
+
+    /**
+     * @return the last published snapshot, published on the calling thread if the first one is not out yet
+     */
+    public WalletSnapshot getSnapshot() {
+        WalletSnapshot current = snapshot;
+        return current != null ? current : publish();
+    }
+
+    /**
+     * @return the last block seen by the wallet, without building a snapshot or taking the wallet lock
+     */
+    public int getLastBlockSeenHeight() {
+        return lastBlockSeenHeight;
+    }
+
+    @Override
+    public void onWalletChanged(Wallet wallet) {
+        int height = wallet.getLastBlockSeenHeight();
+        if (height < lastBlockSeenHeight) {
+            // only a reset moves the wallet back, a reorganize keeps the height of the new best chain
+            log.info("Wallet reset from block {} to {}, rebuilding the read model", lastBlockSeenHeight, height);
+            transactionSummaryIndex.onReorganize(wallet);
+            accountBalanceProjection.onReorganize(wallet);
+            transactionDetailsCache.rebuild();
+        }
+        lastBlockSeenHeight = height;
+        schedulePublish();
+    }
+
+    private void schedulePublish() {
+        if (publishScheduled.compareAndSet(false, true)) {
+            publisher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    publishScheduled.set(false);
+                    publish();
+                }
+            });
+        }
+    }
+
+    private WalletSnapshot publish() {
+        synchronized (publishLock) {
+            propagate(Constants.CONTEXT);
+            final Stopwatch watch = Stopwatch.createStarted();
+            WalletSnapshot published = new WalletSnapshot(
+                    accountBalanceProjection.getBalance(),
+                    transactionSummaryIndex.getSnapshot(),
+                    spendableOutputs.getSnapshot(),
+                    receiveAddressPool.getCurrent(),
+                    wallet.getLastBlockSeenHeight(),
+                    transactionDetailsCache.getSnapshot(),
+                    maxSpendableEngine);
+            snapshot = published;
+            watch.stop();
+            log.debug("Wallet snapshot published, took {}", watch);
+            OnSnapshotPublishedListener listener = onSnapshotPublishedListener;
+            if (listener != null) {
+                listener.onSnapshotPublished(published);
+            }
+            return published;
+        }
+    }
+}
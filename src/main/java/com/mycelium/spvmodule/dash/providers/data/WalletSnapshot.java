@@ -0,0 +1,56 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import com.mycelium.spvmodule.TransactionFee;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionDetails;
+import com.mycelium.spvmodule.dash.providers.data.model.TransactionSummary;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.List;
+
+/**
+ * Immutable state of one wallet as published by {@link WalletReadModel} after a wallet change.
+ * Everything in here can be read without taking the wallet lock.
+ */
+public class WalletSnapshot {
+
+    public final AccountBalanceProjection.Balance balance;
+    /**
+     * Non-dead transactions, newest first.
+     */
+    public final List<TransactionSummary> transactionSummaries;
+    public final SpendableOutputs.Snapshot spendableOutputs;
+    public final ReceiveAddressPool.Entry currentReceiveAddress;
+    public final int lastBlockSeenHeight;
+
+    private final TransactionDetailsCache.Snapshot transactionDetails;
+    private final MaxSpendableEngine maxSpendableEngine;
+
+    WalletSnapshot(AccountBalanceProjection.Balance balance, List<TransactionSummary> transactionSummaries,
+                   SpendableOutputs.Snapshot spendableOutputs, ReceiveAddressPool.Entry currentReceiveAddress, int lastBlockSeenHeight,
+                   TransactionDetailsCache.Snapshot transactionDetails, MaxSpendableEngine maxSpendableEngine) {
+        this.balance = balance;
+        this.transactionSummaries = transactionSummaries;
+        this.spendableOutputs = spendableOutputs;
+        this.currentReceiveAddress = currentReceiveAddress;
+        this.lastBlockSeenHeight = lastBlockSeenHeight;
+        this.transactionDetails = transactionDetails;
+        this.maxSpendableEngine = maxSpendableEngine;
+    }
+
+    public TransactionSummaryIndex.Page getTransactionSummaryPage(Long beforeTime, Sha256Hash beforeTxid, int limit) {
+        return TransactionSummaryIndex.getPage(transactionSummaries, beforeTime, beforeTxid, limit);
+    }
+
+    /**
+     * @return details of the wallet transaction with this hash, or null if the wallet doesn't know it
+     */
+    public TransactionDetails getTransactionDetails(Sha256Hash hash) {
+        return transactionDetails.get(hash, lastBlockSeenHeight);
+    }
+
+    public Coin getMaxSpendable(TransactionFee minerFee) {
+        return maxSpendableEngine.getMaxSpendable(spendableOutputs, minerFee);
+    }
+}
@@ -0,0 +1,18 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import android.database.MatrixCursor;
+
+import com.mycelium.spvmodule.dash.providers.DashTransactionContract;
+
+public class WalletStateCursor extends MatrixCursor {
+
+    private static String[] columnNames = {
+            DashTransactionContract.WalletState._ID,
+            DashTransactionContract.WalletState.STATE,
+            DashTransactionContract.WalletState.LAST_BLOCK_SEEN_HEIGHT
+    };
+
+    public WalletStateCursor() {
+        super(columnNames, 1);
+    }
+}
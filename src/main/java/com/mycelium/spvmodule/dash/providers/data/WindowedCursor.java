@@ -0,0 +1,75 @@
+package com.mycelium.spvmodule.dash.providers.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CursorWindow;
+
+/**
+ * Cursor over an immutable in-memory snapshot that writes rows straight into its {@link CursorWindow}.
+ * <p>
+ * Unlike {@link android.database.MatrixCursor} no boxed row copies are kept: a window is filled from the
+ * snapshot only when the client moves to a position outside of the current window, both locally and
+ * when the cursor is read through the provider across processes.
+ */
+public abstract class WindowedCursor extends AbstractWindowedCursor {
+
+    private final String[] columnNames;
+
+    protected WindowedCursor(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (mWindow == null) {
+            setWindow(new CursorWindow(getClass().getSimpleName()));
+        } else if (newPosition >= mWindow.getStartPosition()
+                && newPosition < mWindow.getStartPosition() + mWindow.getNumRows()) {
+            return true;
+        }
+        fillWindow(newPosition, mWindow);
+        return true;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(columnNames.length);
+            int count = getCount();
+            for (int row = position; row < count; row++) {
+                if (!window.allocRow()) {
+                    break;
+                }
+                if (!fillRow(window, row)) {
+                    // window is full, the client will ask for a new one starting at this row
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    /**
+     * Writes all columns of the row at {@code position} into the already allocated window row.
+     *
+     * @return false if the window ran out of space
+     */
+    protected abstract boolean fillRow(CursorWindow window, int position);
+
+    protected static boolean putString(CursorWindow window, String value, int row, int column) {
+        return value != null ? window.putString(value, row, column) : window.putNull(row, column);
+    }
+
+    protected static boolean putBoolean(CursorWindow window, boolean value, int row, int column) {
+        return window.putLong(value ? 1 : 0, row, column);
+    }
+}
@@ -26,11 +26,13 @@ public class TransactionDetails {
     public static class Item implements Serializable {
         private static final long serialVersionUID = 1L;
         public final Address address;
+        public final String addressBase58;
         public final long value;
         public final boolean isCoinbase;
 
-        public Item(Address address, long value, boolean isCoinbase) {
+        public Item(Address address, String addressBase58, long value, boolean isCoinbase) {
             this.address = address;
+            this.addressBase58 = addressBase58;
             this.value = value;
             this.isCoinbase = isCoinbase;
         }
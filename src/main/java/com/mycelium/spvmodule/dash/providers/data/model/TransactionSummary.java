@@ -20,10 +20,14 @@ public class TransactionSummary implements Comparable<TransactionSummary> {
     //    public final Optional<ConfirmationRiskProfileLocal> confirmationRiskProfile;  //FIXME do we need this for Dash?
     public final Optional<Address> destinationAddress;
     public final List<Address> toAddresses;
+    // base58 forms of the above, as they go into the cursor
+    public final String destinationAddressBase58;
+    public final String toAddressesBase58;
 
     public TransactionSummary(Sha256Hash txid, Coin value, boolean isIncoming, long time, int height,
                               int confirmations, boolean isQueuedOutgoing,
-                              Optional<Address> destinationAddress, List<Address> toAddresses) {
+                              Optional<Address> destinationAddress, List<Address> toAddresses,
+                              String destinationAddressBase58, String toAddressesBase58) {
         this.txid = txid;
         this.value = value;
         this.isIncoming = isIncoming;
@@ -33,6 +37,8 @@ public class TransactionSummary implements Comparable<TransactionSummary> {
         this.isQueuedOutgoing = isQueuedOutgoing;
         this.destinationAddress = destinationAddress;
         this.toAddresses = toAddresses;
+        this.destinationAddressBase58 = destinationAddressBase58;
+        this.toAddressesBase58 = toAddressesBase58;
     }
 
     @Override
@@ -0,0 +1,85 @@
+package com.mycelium.spvmodule.dash.util;
+
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded cache from output scripts to their address, both parsed and in base58 form.
+ * <p>
+ * Deriving the address of a script and encoding it with its checksum is the most expensive part of
+ * building history rows, and the same few wallet scripts come up over and over again.
+ */
+public class AddressCache {
+
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final AddressCache instance = new AddressCache(Constants.NETWORK_PARAMETERS, MAX_ENTRIES);
+
+    public static AddressCache getInstance() {
+        return instance;
+    }
+
+    public static class Entry {
+        public final Address address;
+        public final String base58;
+
+        Entry(Address address) {
+            this.address = address;
+            this.base58 = address != null ? address.toBase58() : null;
+        }
+    }
+
+    // marks scripts without an address, LruCache doesn't take null values
+    private static final Entry NO_ADDRESS = new Entry(null);
+
+    private final NetworkParameters networkParameters;
+    private final LruCache<ByteBuffer, Entry> cache;
+    private final Entry nullAddress;
+
+    private AddressCache(NetworkParameters networkParameters, int maxEntries) {
+        this.networkParameters = networkParameters;
+        this.cache = new LruCache<>(maxEntries);
+        this.nullAddress = new Entry(new Address(networkParameters, new byte[20]));
+    }
+
+    /**
+     * @return the all-zero address used where a script has no known address, e.g. unconnected inputs
+     */
+    public Entry getNullAddress() {
+        return nullAddress;
+    }
+
+    /**
+     * @return the address paid by the output, or null if its script doesn't pay to an address
+     */
+    @Nullable
+    public Entry forOutput(TransactionOutput output) {
+        byte[] scriptBytes = output.getScriptBytes();
+        ByteBuffer key = ByteBuffer.wrap(scriptBytes);
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            entry = derive(scriptBytes);
+            cache.put(key, entry);
+        }
+        return entry != NO_ADDRESS ? entry : null;
+    }
+
+    private Entry derive(byte[] scriptBytes) {
+        try {
+            Address address = new Script(scriptBytes).getToAddress(networkParameters, true);
+            return new Entry(address);
+        } catch (ScriptException x) {
+            return NO_ADDRESS;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mycelium.spvmodule.dash.util;
+
+import com.mycelium.spvmodule.dash.Constants;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * Validates base58 addresses without creating objects or throwing on the way.
+ * <p>
+ * {@link org.bitcoinj.core.Address#fromBase58} allocates a BigInteger, several arrays and an exception for
+ * every invalid input. Here the base58 string is decoded straight into a per-thread buffer and its checksum
+ * is verified with a per-thread digest, which matters when the host validates on every keystroke or
+ * camera frame.
+ */
+public class AddressValidator {
+
+    private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final byte[] INDEXES = new byte[128];
+
+    static {
+        for (int i = 0; i < INDEXES.length; i++) {
+            INDEXES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            INDEXES[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    // version byte, 20 bytes hash, 4 bytes checksum
+    private static final int ADDRESS_LENGTH = 25;
+    private static final int CHECKSUM_OFFSET = ADDRESS_LENGTH - 4;
+    // 25 bytes never take more than 35 base58 digits
+    private static final int MAX_ENCODED_LENGTH = 35;
+
+    private static AddressValidator instance;
+
+    public static synchronized AddressValidator getInstance() {
+        if (instance == null) {
+            instance = new AddressValidator(Constants.NETWORK_PARAMETERS);
+        }
+        return instance;
+    }
+
+    private static class Buffers {
+        final byte[] decoded = new byte[ADDRESS_LENGTH];
+        final byte[] hash = new byte[32];
+        final MessageDigest digest = Sha256Hash.newDigest();
+    }
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final int[] acceptableVersions;
+
+    AddressValidator(NetworkParameters networkParameters) {
+        this.acceptableVersions = networkParameters.getAcceptableAddressCodes();
+    }
+
+    public boolean isValidAddress(CharSequence address) {
+        return isValidAddress(address, 0, address.length());
+    }
+
+    /**
+     * @return true if {@code address[start, end)} is a base58 pubkey hash or script hash address of this network
+     */
+    public boolean isValidAddress(CharSequence address, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > MAX_ENCODED_LENGTH) {
+            return false;
+        }
+        Buffers buffers = this.buffers.get();
+        byte[] decoded = buffers.decoded;
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            decoded[i] = 0;
+        }
+
+        int leadingOnes = 0;
+        boolean inLeadingOnes = true;
+        for (int i = start; i < end; i++) {
+            char c = address.charAt(i);
+            int digit = c < 128 ? INDEXES[c] : -1;
+            if (digit < 0) {
+                return false;
+            }
+            if (inLeadingOnes) {
+                if (digit == 0) {
+                    leadingOnes++;
+                } else {
+                    inLeadingOnes = false;
+                }
+            }
+            // decoded = decoded * 58 + digit
+            int carry = digit;
+            for (int j = ADDRESS_LENGTH - 1; j >= 0; j--) {
+                carry += 58 * (decoded[j] & 0xff);
+                decoded[j] = (byte) carry;
+                carry >>>= 8;
+            }
+            if (carry != 0) {
+                // doesn't fit into 25 bytes
+                return false;
+            }
+        }
+
+        // every leading zero byte is encoded as exactly one '1'
+        int leadingZeros = 0;
+        while (leadingZeros < ADDRESS_LENGTH && decoded[leadingZeros] == 0) {
+            leadingZeros++;
+        }
+        if (leadingZeros != leadingOnes) {
+            return false;
+        }
+
+        if (!isAcceptableVersion(decoded[0] & 0xff)) {
+            return false;
+        }
+
+        byte[] hash = buffers.hash;
+        MessageDigest digest = buffers.digest;
+        try {
+            digest.update(decoded, 0, CHECKSUM_OFFSET);
+            digest.digest(hash, 0, hash.length);
+            digest.update(hash, 0, hash.length);
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException x) {
+            throw new IllegalStateException(x);
+        }
+        for (int i = 0; i < 4; i++) {
+            if (hash[i] != decoded[CHECKSUM_OFFSET + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAcceptableVersion(int version) {
+        for (int acceptable : acceptableVersions) {
+            if (acceptable == version) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
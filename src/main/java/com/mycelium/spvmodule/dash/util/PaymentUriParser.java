@@ -0,0 +1,203 @@
+package com.mycelium.spvmodule.dash.util;
+
+import android.support.annotation.Nullable;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single pass parser for {@code dash:} payment URIs (BIP21), including payment request URLs (BIP72) and the
+ * Dash {@code IS} InstantSend flag.
+ */
+public class PaymentUriParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String URI_SCHEME = "dash";
+    public static final int MAX_AMOUNT_DECIMALS = 8;
+
+    public static class PaymentUri {
+        /**
+         * Base58 address, null for a BIP72 URI that only carries a payment request URL.
+         */
+        public final String address;
+        /**
+         * Amount in duffs, or -1 if the URI has none.
+         */
+        public final long amount;
+        public final String label;
+        public final String message;
+        public final boolean instantSend;
+        public final String paymentRequestUrl;
+
+        PaymentUri(String address, long amount, String label, String message, boolean instantSend,
+                   String paymentRequestUrl) {
+            this.address = address;
+            this.amount = amount;
+            this.label = label;
+            this.message = message;
+            this.instantSend = instantSend;
+            this.paymentRequestUrl = paymentRequestUrl;
+        }
+    }
+
+    private final AddressValidator addressValidator;
+
+    public PaymentUriParser(AddressValidator addressValidator) {
+        this.addressValidator = addressValidator;
+    }
+
+    /**
+     * @return the parsed URI, or null if it is not a valid payment URI of this network
+     */
+    @Nullable
+    public PaymentUri parse(String uri) {
+        int schemeEnd = URI_SCHEME.length();
+        if (uri.length() <= schemeEnd || uri.charAt(schemeEnd) != ':'
+                || !uri.regionMatches(true, 0, URI_SCHEME, 0, schemeEnd)) {
+            return null;
+        }
+        int addressStart = schemeEnd + 1;
+        int length = uri.length();
+        int addressEnd = addressStart;
+        while (addressEnd < length && uri.charAt(addressEnd) != '?') {
+            addressEnd++;
+        }
+        String address = null;
+        if (addressEnd > addressStart) {
+            if (!addressValidator.isValidAddress(uri, addressStart, addressEnd)) {
+                return null;
+            }
+            address = uri.substring(addressStart, addressEnd);
+        }
+
+        long amount = -1;
+        String label = null;
+        String message = null;
+        boolean instantSend = false;
+        String paymentRequestUrl = null;
+
+        int paramStart = addressEnd + 1;
+        while (paramStart < length) {
+            int nameEnd = paramStart;
+            while (nameEnd < length && uri.charAt(nameEnd) != '=' && uri.charAt(nameEnd) != '&') {
+                nameEnd++;
+            }
+            int valueStart = nameEnd < length && uri.charAt(nameEnd) == '=' ? nameEnd + 1 : nameEnd;
+            int valueEnd = valueStart;
+            while (valueEnd < length && uri.charAt(valueEnd) != '&') {
+                valueEnd++;
+            }
+
+            if (isName(uri, paramStart, nameEnd, "amount")) {
+                amount = parseAmount(uri, valueStart, valueEnd);
+                if (amount < 0) {
+                    return null;
+                }
+            } else if (isName(uri, paramStart, nameEnd, "label")) {
+                label = decode(uri, valueStart, valueEnd);
+            } else if (isName(uri, paramStart, nameEnd, "message")) {
+                message = decode(uri, valueStart, valueEnd);
+            } else if (isName(uri, paramStart, nameEnd, "IS")) {
+                instantSend = isName(uri, valueStart, valueEnd, "1") || isName(uri, valueStart, valueEnd, "true");
+            } else if (isName(uri, paramStart, nameEnd, "r")) {
+                paymentRequestUrl = decode(uri, valueStart, valueEnd);
+            } else if (uri.regionMatches(paramStart, "req-", 0, 4)) {
+                // required parameter we don't understand
+                return null;
+            }
+            paramStart = valueEnd + 1;
+        }
+
+        if (address == null && paymentRequestUrl == null) {
+            return null;
+        }
+        return new PaymentUri(address, amount, label, message, instantSend, paymentRequestUrl);
+    }
+
+    /**
+     * Parses a decimal coin amount like {@code 1.5} into duffs.
+     *
+     * @return the amount, or -1 if {@code value[start, end)} is not a valid amount
+     */
+    static long parseAmount(CharSequence value, int start, int end) {
+        long units = 0;
+        int decimals = -1;
+        boolean hasDigits = false;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                if (decimals >= 0) {
+                    return -1;
+                }
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (decimals >= 0 && ++decimals > MAX_AMOUNT_DECIMALS) {
+                    return -1;
+                }
+                int digit = c - '0';
+                if (units > (Long.MAX_VALUE - digit) / 10) {
+                    return -1;
+                }
+                units = units * 10 + digit;
+                hasDigits = true;
+            } else {
+                return -1;
+            }
+        }
+        if (!hasDigits) {
+            return -1;
+        }
+        // scale the digits read to duffs, the overflow check is on the final value
+        for (int i = Math.max(decimals, 0); i < MAX_AMOUNT_DECIMALS; i++) {
+            if (units > Long.MAX_VALUE / 10) {
+                return -1;
+            }
+            units *= 10;
+        }
+        return units;
+    }
+
+    private static boolean isName(String uri, int start, int end, String name) {
+        return end - start == name.length() && uri.regionMatches(start, name, 0, name.length());
+    }
+
+    /**
+     * Percent-decodes {@code value[start, end)}, runs of escapes are read as UTF-8 and '+' is kept as it is.
+     */
+    private static String decode(String value, int start, int end) {
+        int percent = value.indexOf('%', start);
+        if (percent < 0 || percent >= end) {
+            return value.substring(start, end);
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(value, start, percent);
+        byte[] bytes = new byte[(end - percent) / 3];
+        int i = percent;
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c != '%') {
+                builder.append(c);
+                i++;
+                continue;
+            }
+            int count = 0;
+            while (i + 2 < end && value.charAt(i) == '%') {
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    break;
+                }
+                bytes[count++] = (byte) ((high << 4) | low);
+                i += 3;
+            }
+            if (count > 0) {
+                builder.append(new String(bytes, 0, count, UTF_8));
+            } else {
+                // stray '%', take it as it is
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+}
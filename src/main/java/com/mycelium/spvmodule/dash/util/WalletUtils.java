@@ -40,7 +40,6 @@ import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.WrongNetworkException;
-import org.bitcoinj.script.Script;
 import org.bitcoinj.wallet.DeterministicSeed;
 import org.bitcoinj.wallet.KeyChainGroup;
 import org.bitcoinj.wallet.UnreadableWalletException;
@@ -128,8 +127,10 @@ public class WalletUtils {
         for (final TransactionOutput output : tx.getOutputs()) {
             try {
                 if (!output.isMine(wallet)) {
-                    final Script script = output.getScriptPubKey();
-                    return script.getToAddress(Constants.NETWORK_PARAMETERS, true);
+                    final AddressCache.Entry address = AddressCache.getInstance().forOutput(output);
+                    if (address != null) {
+                        return address.address;
+                    }
                 }
             } catch (final ScriptException x) {
                 // swallow
@@ -144,8 +145,10 @@ public class WalletUtils {
         for (final TransactionOutput output : tx.getOutputs()) {
             try {
                 if (output.isMine(wallet)) {
-                    final Script script = output.getScriptPubKey();
-                    return script.getToAddress(Constants.NETWORK_PARAMETERS, true);
+                    final AddressCache.Entry address = AddressCache.getInstance().forOutput(output);
+                    if (address != null) {
+                        return address.address;
+                    }
                 }
             } catch (final ScriptException x) {
                 // swallow
@@ -0,0 +1,132 @@
+package com.mycelium.spvmodule.dash;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WalletJournalTest {
+
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+    }
+
+    @Test
+    public void reloadsWalletSavedBehindTheBlockStore() throws Exception {
+        Wallet wallet = new Wallet(PARAMS);
+        BlockStore blockStore = new MemoryBlockStore(PARAMS);
+        BlockChain blockChain = new BlockChain(PARAMS, wallet, blockStore);
+        Block block1 = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        assertTrue(blockChain.add(block1));
+
+        File walletFile = folder.newFile("wallet");
+        wallet.saveToFile(walletFile);
+
+        AutosavePolicy policy = new AutosavePolicy();
+        // keeps the journal from compacting before the crash below
+        policy.setBlocksLeft(Integer.MAX_VALUE);
+        WalletJournal journal = new WalletJournal(wallet, walletFile, policy, new WalletPersister());
+        journal.attach();
+
+        // confirmed after the save, only the chain can bring it back
+        Block block2 = block1.createNextBlock(wallet.currentReceiveAddress());
+        assertTrue(blockChain.add(block2));
+        Transaction confirmed = block2.getTransactions().get(0);
+        assertNotNull(wallet.getTransaction(confirmed.getHash()));
+
+        // pending, only the journal can bring it back
+        Transaction pending = FakeTxBuilder.createFakeTx(PARAMS, Coin.COIN, wallet.currentReceiveAddress());
+        wallet.receivePending(pending, null);
+
+        // crash: the records are synced, the wallet file is not rewritten
+        journal.detach();
+
+        Wallet reloaded = Wallet.loadFromFile(walletFile);
+        assertEquals(1, reloaded.getLastBlockSeenHeight());
+        assertEquals(1, WalletJournal.replay(reloaded, walletFile));
+        assertEquals(ConfidenceType.PENDING, reloaded.getTransaction(pending.getHash()).getConfidence().getConfidenceType());
+        assertNull(reloaded.getTransaction(confirmed.getHash()));
+
+        // as SpvService builds the chain
+        BlockChain reloadedChain = new BlockChain(PARAMS, new ArrayList<Wallet>(), blockStore);
+        assertEquals(2, reloadedChain.getBestChainHeight());
+        reloadedChain.addWallet(reloaded);
+        assertEquals(1, reloadedChain.getBestChainHeight());
+
+        assertTrue(reloadedChain.add(block2));
+        assertEquals(2, reloaded.getLastBlockSeenHeight());
+        assertNotNull(reloaded.getTransaction(confirmed.getHash()));
+        assertNotNull(reloaded.getTransaction(pending.getHash()));
+    }
+
+    @Test
+    public void rewindsAccountsSavedAheadOfTheLowestOne() throws Exception {
+        Wallet behind = new Wallet(PARAMS);
+        Wallet ahead = new Wallet(PARAMS);
+        BlockStore blockStore = new MemoryBlockStore(PARAMS);
+        BlockChain blockChain = new BlockChain(PARAMS, Arrays.asList(behind, ahead), blockStore);
+        Block block1 = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        assertTrue(blockChain.add(block1));
+
+        // the accounts compact on their own schedule
+        File behindFile = folder.newFile("behind");
+        behind.saveToFile(behindFile);
+
+        Transaction confirmed = FakeTxBuilder.createFakeTx(PARAMS, Coin.COIN, ahead.currentReceiveAddress());
+        Block block2 = FakeTxBuilder.makeSolvedTestBlock(block1, confirmed);
+        assertTrue(blockChain.add(block2));
+        assertEquals(1, ahead.getTransaction(confirmed.getHash()).getConfidence().getDepthInBlocks());
+
+        File aheadFile = folder.newFile("ahead");
+        ahead.saveToFile(aheadFile);
+
+        Wallet reloadedBehind = Wallet.loadFromFile(behindFile);
+        Wallet reloadedAhead = Wallet.loadFromFile(aheadFile);
+        assertEquals(1, WalletJournal.rewindToCommonBlock(Arrays.asList(reloadedBehind, reloadedAhead), blockStore));
+        assertEquals(1, reloadedAhead.getLastBlockSeenHeight());
+        assertEquals(ConfidenceType.PENDING, reloadedAhead.getTransaction(confirmed.getHash()).getConfidence().getConfidenceType());
+
+        // as SpvService builds the chain
+        BlockChain reloadedChain = new BlockChain(PARAMS, new ArrayList<Wallet>(), blockStore);
+        reloadedChain.addWallet(reloadedBehind);
+        reloadedChain.addWallet(reloadedAhead);
+        assertEquals(1, reloadedChain.getBestChainHeight());
+
+        assertTrue(reloadedChain.add(block2));
+        Block block3 = block2.createNextBlock(new ECKey().toAddress(PARAMS));
+        assertTrue(reloadedChain.add(block3));
+        assertEquals(3, reloadedBehind.getLastBlockSeenHeight());
+        assertEquals(3, reloadedAhead.getLastBlockSeenHeight());
+        // counted once for each block
+        TransactionConfidence confidence = reloadedAhead.getTransaction(confirmed.getHash()).getConfidence();
+        assertEquals(ConfidenceType.BUILDING, confidence.getConfidenceType());
+        assertEquals(2, confidence.getAppearedAtChainHeight());
+        assertEquals(2, confidence.getDepthInBlocks());
+    }
+}
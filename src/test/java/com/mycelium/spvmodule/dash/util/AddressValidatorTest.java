@@ -0,0 +1,74 @@
+package com.mycelium.spvmodule.dash.util;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressValidatorTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    private static final String PUBKEY_HASH_ADDRESS = "Xags3HEXJ4G4Uuf8va2eSxLCw2KCyEhiJ7";
+    private static final String SCRIPT_HASH_ADDRESS = "7SQekjmcMtR25wEPPiL6m1Mb5586R5ut33";
+    private static final String TESTNET_ADDRESS = "yLKU4EJxjbv8peagVRM3UykZDJoaUUrXSn";
+    private static final String BAD_CHECKSUM_ADDRESS = "Xags3HEXJ4G4Uuf8va2eSxLCw2KCyEhiJ8";
+
+    private final AddressValidator validator = new AddressValidator(PARAMS);
+
+    @Test
+    public void validatesAddresses() {
+        assertTrue(validator.isValidAddress(PUBKEY_HASH_ADDRESS));
+        assertTrue(validator.isValidAddress(SCRIPT_HASH_ADDRESS));
+        assertFalse(validator.isValidAddress(TESTNET_ADDRESS));
+        assertFalse(validator.isValidAddress(BAD_CHECKSUM_ADDRESS));
+        assertFalse(validator.isValidAddress("1" + PUBKEY_HASH_ADDRESS));
+        assertFalse(validator.isValidAddress(PUBKEY_HASH_ADDRESS + "0"));
+        assertFalse(validator.isValidAddress(""));
+    }
+
+    /**
+     * Compares with the exception driven check the provider used before. Opt-in, run it by hand.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void benchmarkAgainstAddressFromBase58() {
+        String[] inputs = {PUBKEY_HASH_ADDRESS, BAD_CHECKSUM_ADDRESS, TESTNET_ADDRESS, "Xags3HEX"};
+        for (String input : inputs) {
+            assertEquals(isValidWithFromBase58(input), validator.isValidAddress(input));
+        }
+        int iterations = 20000;
+        int calls = iterations * inputs.length;
+        for (int round = 0; round < 3; round++) {
+            long validatorNanos = 0;
+            long fromBase58Nanos = 0;
+            for (String input : inputs) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    validator.isValidAddress(input);
+                }
+                validatorNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    isValidWithFromBase58(input);
+                }
+                fromBase58Nanos += System.nanoTime() - start;
+            }
+            System.out.println("round " + round + ", AddressValidator: " + validatorNanos / calls
+                    + " ns/call, Address.fromBase58: " + fromBase58Nanos / calls + " ns/call");
+        }
+    }
+
+    private static boolean isValidWithFromBase58(String address) {
+        try {
+            Address.fromBase58(PARAMS, address);
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.mycelium.spvmodule.dash.util;
+
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PaymentUriParserTest {
+
+    private static final String ADDRESS = "Xags3HEXJ4G4Uuf8va2eSxLCw2KCyEhiJ7";
+
+    private final PaymentUriParser parser = new PaymentUriParser(new AddressValidator(MainNetParams.get()));
+
+    @Test
+    public void parsesAllParameters() {
+        PaymentUriParser.PaymentUri uri = parser.parse("dash:" + ADDRESS
+                + "?amount=0.25&label=Caf%C3%A9%20Bar&message=Order%2042&IS=1&unknown=x");
+        assertNotNull(uri);
+        assertEquals(ADDRESS, uri.address);
+        assertEquals(25000000L, uri.amount);
+        assertEquals("Café Bar", uri.label);
+        assertEquals("Order 42", uri.message);
+        assertTrue(uri.instantSend);
+        assertNull(uri.paymentRequestUrl);
+    }
+
+    @Test
+    public void parsesPaymentRequestWithoutAddress() {
+        PaymentUriParser.PaymentUri uri = parser.parse("dash:?r=https%3A%2F%2Fexample.com%2Fpr");
+        assertNotNull(uri);
+        assertNull(uri.address);
+        assertEquals(-1L, uri.amount);
+        assertEquals("https://example.com/pr", uri.paymentRequestUrl);
+    }
+
+    @Test
+    public void acceptsSchemeInAnyCase() {
+        PaymentUriParser.PaymentUri uri = parser.parse("DASH:" + ADDRESS + "?amount=1.5&label=Shop");
+        assertNotNull(uri);
+        assertEquals(150000000L, uri.amount);
+        assertEquals("Shop", uri.label);
+    }
+
+    @Test
+    public void rejectsInvalidUris() {
+        assertNull(parser.parse(ADDRESS));
+        assertNull(parser.parse("dash:"));
+        assertNull(parser.parse("dash:" + ADDRESS + "?amount=abc"));
+        assertNull(parser.parse("dash:" + ADDRESS + "?amount=1.123456789"));
+        assertNull(parser.parse("dash:" + ADDRESS + "?amount="));
+        assertNull(parser.parse("dash:" + ADDRESS + "?req-somethingnew=1"));
+        assertNull(parser.parse("bitcoin:" + ADDRESS));
+    }
+
+    @Test
+    public void parsesAmounts() {
+        assertEquals(150000000L, PaymentUriParser.parseAmount("1.5", 0, 3));
+        assertEquals(1L, PaymentUriParser.parseAmount(".00000001", 0, 9));
+        assertEquals(-1L, PaymentUriParser.parseAmount(".", 0, 1));
+        assertEquals(-1L, PaymentUriParser.parseAmount("1,5", 0, 3));
+        assertEquals(100012345678L, PaymentUriParser.parseAmount("1000.12345678", 0, 13));
+        assertEquals(Long.MAX_VALUE, PaymentUriParser.parseAmount("92233720368.54775807", 0, 20));
+        assertEquals(-1L, PaymentUriParser.parseAmount("92233720368.54775808", 0, 20));
+        assertEquals(-1L, PaymentUriParser.parseAmount("92233720369", 0, 11));
+    }
+}